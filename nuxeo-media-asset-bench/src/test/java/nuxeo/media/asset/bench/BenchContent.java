@@ -0,0 +1,112 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+
+import nuxeo.media.asset.service.MediaTypeDescriptor;
+import nuxeo.media.asset.service.MimetypeListDescriptor;
+
+/**
+ * Content shared by the benchmarks.
+ */
+public class BenchContent {
+
+    private BenchContent() {
+        // utility class
+    }
+
+    /**
+     * @return the default Picture, Video and Audio media types followed by synthetic ones, the default ones having the
+     *         lowest priority
+     */
+    public static List<MediaTypeDescriptor> rules(int count) {
+        List<MediaTypeDescriptor> descriptors = new ArrayList<>();
+        String[][] defaults = { { "image/.*", "Picture" }, { "video/.*", "Video" }, { "audio/.*", "Audio" } };
+        for (int i = 0; i < count; i++) {
+            MediaTypeDescriptor descriptor = new MediaTypeDescriptor();
+            descriptor.setName("Type" + i);
+            descriptor.setOrder(count - i);
+            if (i < defaults.length) {
+                descriptor.setMimetypes(Arrays.asList(defaults[i][0]));
+                descriptor.setFacets(Arrays.asList(defaults[i][1]));
+            } else {
+                descriptor.setMimetypes(Arrays.asList("type-" + i + "/.*", "application/x-type" + i + "\\+xml"));
+                descriptor.setFacets(Arrays.asList("Facet" + i));
+            }
+            descriptors.add(descriptor);
+        }
+        return descriptors;
+    }
+
+    public static MimetypeListDescriptor supportedZipContent() {
+        MimetypeListDescriptor descriptor = new MimetypeListDescriptor();
+        descriptor.setMimetypes(Arrays.asList("text/wavefront-obj"));
+        descriptor.setExtensions(Arrays.asList("obj"));
+        return descriptor;
+    }
+
+    /**
+     * @param path a fixture of the core test jar
+     */
+    public static Blob fixture(String path) {
+        try (InputStream stream = BenchContent.class.getClassLoader().getResourceAsStream(path)) {
+            Blob blob = Blobs.createBlob(stream);
+            blob.setFilename(path.substring(path.lastIndexOf('/') + 1));
+            return blob;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return an archive of unsupported entries followed by a single supported one, the worst case for the scan
+     */
+    public static Blob syntheticZip(int entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int i = 1; i < entries; i++) {
+                zip.putNextEntry(new ZipEntry("textures/texture-" + i + ".png"));
+                zip.write(new byte[1024]);
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry("model.obj"));
+            zip.write("o model".getBytes());
+            zip.closeEntry();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Blob blob = Blobs.createBlob(bytes.toByteArray());
+        blob.setFilename("synthetic-" + entries + ".zip");
+        return blob;
+    }
+
+}
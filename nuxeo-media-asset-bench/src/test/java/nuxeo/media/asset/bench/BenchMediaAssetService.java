@@ -0,0 +1,64 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.bench;
+
+import java.util.List;
+
+import org.nuxeo.ecm.core.api.Blob;
+
+import nuxeo.media.asset.archive.ArchiveInspector;
+import nuxeo.media.asset.archive.ZipArchiveInspector;
+import nuxeo.media.asset.service.MediaAssetServiceImpl;
+import nuxeo.media.asset.service.MediaTypeDescriptor;
+
+/**
+ * A standalone service instance with its own contributions and matcher, exposing the zip scan.
+ */
+public class BenchMediaAssetService extends MediaAssetServiceImpl {
+
+    protected final ArchiveInspector zipInspector = new ZipArchiveInspector();
+
+    protected final boolean automaton;
+
+    public BenchMediaAssetService(List<MediaTypeDescriptor> rules) {
+        this(rules, false);
+    }
+
+    /**
+     * @param automaton whether the mimetype patterns are matched by the automaton instead of one regex per pattern
+     */
+    public BenchMediaAssetService(List<MediaTypeDescriptor> rules, boolean automaton) {
+        this.automaton = automaton;
+        for (MediaTypeDescriptor rule : rules) {
+            registerContribution(rule, MEDIA_TYPE_EXT_POINT, null);
+        }
+        registerContribution(BenchContent.supportedZipContent(), SUPPORTED_ZIP_CONTENT_EXT_POINT, null);
+    }
+
+    @Override
+    protected boolean useAutomaton() {
+        return automaton;
+    }
+
+    public String zipContentMimetype(Blob blob) {
+        return getArchiveContentMimetype(getRegistry(), blob, zipInspector);
+    }
+
+}
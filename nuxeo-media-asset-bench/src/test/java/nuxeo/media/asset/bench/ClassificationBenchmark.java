@@ -0,0 +1,104 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.bench;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.impl.DocumentModelImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import nuxeo.media.asset.service.MediaAssetServiceImpl;
+import nuxeo.media.asset.test.utils.SampleContent;
+
+/**
+ * Cost of a classification on the listener path depending on the number of media types, with the mimetype patterns
+ * matched one regex at a time or by the automaton.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ClassificationBenchmark {
+
+    @Param({ "3", "50", "500" })
+    public int rules;
+
+    @Param({ "regex", MediaAssetServiceImpl.MATCHER_AUTOMATON })
+    public String matcher;
+
+    protected BenchMediaAssetService service;
+
+    protected String[] mimetypes;
+
+    protected int next;
+
+    protected Blob jpeg;
+
+    protected Blob cachedJpeg;
+
+    protected DocumentModel doc;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        service = new BenchMediaAssetService(BenchContent.rules(rules),
+                MediaAssetServiceImpl.MATCHER_AUTOMATON.equals(matcher));
+        // the last mimetype matches the lowest ranked rule, or none with the default rules only
+        mimetypes = new String[] { "image/jpeg", "video/mp4", "audio/mpeg", "application/pdf",
+                "type-" + (rules - 1) + "/sub" };
+        jpeg = BenchContent.fixture(SampleContent.JPEG_PATH);
+        cachedJpeg = BenchContent.fixture(SampleContent.JPEG_PATH);
+        cachedJpeg.setDigest("bench-jpeg-digest");
+        doc = new DocumentModelImpl("/", "asset", "FileWithAsset");
+        doc.setPropertyValue("file:content", (Serializable) jpeg);
+    }
+
+    @Benchmark
+    public List<String> facetsFromMimetype() {
+        next = (next + 1) % mimetypes.length;
+        return service.getMediaFacets(mimetypes[next], null);
+    }
+
+    @Benchmark
+    public List<String> facetsFromBlob() {
+        return service.getMediaFacets(jpeg);
+    }
+
+    @Benchmark
+    public List<String> facetsFromCachedBlob() {
+        return service.getMediaFacets(cachedJpeg);
+    }
+
+    @Benchmark
+    public DocumentModel updateDocumentMediaFacet() {
+        return service.updateDocumentMediaFacet(doc);
+    }
+
+}
@@ -0,0 +1,318 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.event.EventServiceAdmin;
+import org.nuxeo.ecm.platform.filemanager.api.FileImporterContext;
+import org.nuxeo.ecm.platform.filemanager.api.FileManager;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import com.sun.management.ThreadMXBean;
+
+import nuxeo.media.asset.test.utils.SampleContent;
+import nuxeo.media.asset.test.utils.TestContentBuilder;
+
+/**
+ * Creates documents from a mix of fixtures with concurrent sessions, one transaction per document, and measures the
+ * throughput, the latency and the bytes allocated per document.
+ * <p>
+ * The size of a run is set with -Dnuxeo.media.asset.load.documents (200), -Dnuxeo.media.asset.load.threads (4) and
+ * -Dnuxeo.media.asset.load.mix (jpg:4,mp4:1,m4a:1,zip:1,obj:1), the fixture types followed by their weight.
+ */
+public class IngestLoad {
+
+    public static final String DOCUMENTS_PROPERTY = "nuxeo.media.asset.load.documents";
+
+    public static final String THREADS_PROPERTY = "nuxeo.media.asset.load.threads";
+
+    public static final String MIX_PROPERTY = "nuxeo.media.asset.load.mix";
+
+    public static final String DEFAULT_MIX = "jpg:4,mp4:1,m4a:1,zip:1,obj:1";
+
+    public static final String LISTENER_NAME = "compoundAssetListener";
+
+    protected static final Map<String, String> FIXTURES = Map.of("jpg", SampleContent.JPEG_PATH, "mp4",
+            SampleContent.MP4_PATH, "m4a", SampleContent.M4A_PATH, "zip", SampleContent.ZIP_3D_PATH, "obj",
+            SampleContent.OBJ_3D_PATH);
+
+    /**
+     * How the documents are created.
+     */
+    public enum Mode {
+
+        /**
+         * {@link CoreSession#createDocument}, through {@link TestContentBuilder}.
+         */
+        CREATE,
+
+        /**
+         * {@link FileManager#createOrUpdateDocument}, the media asset importer classifies the blob whether the
+         * listener is enabled or not.
+         */
+        IMPORT
+    }
+
+    protected final String repositoryName;
+
+    protected final int documents;
+
+    protected final int threads;
+
+    protected final List<Fixture> mix;
+
+    public IngestLoad(String repositoryName) {
+        this(repositoryName, Integer.getInteger(DOCUMENTS_PROPERTY, 200), Integer.getInteger(THREADS_PROPERTY, 4),
+                System.getProperty(MIX_PROPERTY, DEFAULT_MIX));
+    }
+
+    public IngestLoad(String repositoryName, int documents, int threads, String mix) {
+        this.repositoryName = repositoryName;
+        this.documents = documents;
+        this.threads = threads;
+        this.mix = parseMix(mix);
+    }
+
+    public int getDocuments() {
+        return documents;
+    }
+
+    /**
+     * Creates the documents in a new folder, with the media asset listener enabled or not. To be called outside of a
+     * transaction, so that the folder is visible to the concurrent sessions.
+     *
+     * @param parentPath the path of the parent of the run folder
+     * @param name the name of the run folder
+     * @return the measures of the run
+     */
+    public Result run(String parentPath, String name, Mode mode, boolean listenerEnabled) {
+        String folderPath = TransactionHelper.runInTransaction(() -> {
+            CoreSession session = CoreInstance.getCoreSessionSystem(repositoryName);
+            return session.createDocument(session.createDocumentModel(parentPath, name, "Folder")).getPathAsString();
+        });
+        EventServiceAdmin eventServiceAdmin = Framework.getService(EventServiceAdmin.class);
+        eventServiceAdmin.setListenerEnabledFlag(LISTENER_NAME, listenerEnabled);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long[] latencies = new long[documents];
+            long[] allocations = new long[documents];
+            AtomicInteger next = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+                    long threadId = Thread.currentThread().getId();
+                    for (int i = next.getAndIncrement(); i < documents; i = next.getAndIncrement()) {
+                        Fixture fixture = mix.get(i % mix.size());
+                        Blob blob = fixture.newBlob("doc-" + i);
+                        long allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+                        long time = System.nanoTime();
+                        TransactionHelper.runInTransaction(() -> create(folderPath, blob, mode));
+                        latencies[i] = System.nanoTime() - time;
+                        allocations[i] = threadMXBean.getThreadAllocatedBytes(threadId) - allocated;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            return new Result(mode, listenerEnabled, folderPath, latencies, allocations, elapsed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException(e);
+        } catch (ExecutionException e) {
+            throw new NuxeoException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            eventServiceAdmin.setListenerEnabledFlag(LISTENER_NAME, true);
+        }
+    }
+
+    protected void create(String folderPath, Blob blob, Mode mode) {
+        CoreSession session = CoreInstance.getCoreSessionSystem(repositoryName);
+        if (mode == Mode.CREATE) {
+            TestContentBuilder.newInstance(session).setPath(folderPath).setName(blob.getFilename()).setBlob(blob).build();
+            return;
+        }
+        try {
+            FileImporterContext context = FileImporterContext.builder(session, blob, folderPath)
+                                                             .overwrite(false)
+                                                             .build();
+            Framework.getService(FileManager.class).createOrUpdateDocument(context);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    protected static List<Fixture> parseMix(String mix) {
+        List<Fixture> fixtures = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            String path = FIXTURES.get(parts[0]);
+            if (path == null) {
+                throw new IllegalArgumentException("Unknown fixture type " + parts[0] + ", expected one of "
+                        + FIXTURES.keySet());
+            }
+            Fixture fixture = new Fixture(parts[0], BenchContent.fixture(path));
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+            for (int i = 0; i < weight; i++) {
+                fixtures.add(fixture);
+            }
+        }
+        return fixtures;
+    }
+
+    /**
+     * A fixture loaded once, each document getting its own copy of the bytes.
+     */
+    protected static class Fixture {
+
+        protected final String type;
+
+        protected final byte[] bytes;
+
+        protected final String mimetype;
+
+        protected Fixture(String type, Blob blob) {
+            this.type = type;
+            try {
+                this.bytes = blob.getByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.mimetype = blob.getMimeType();
+        }
+
+        protected Blob newBlob(String name) {
+            Blob blob = Blobs.createBlob(bytes, mimetype);
+            blob.setFilename(name + '.' + type);
+            return blob;
+        }
+    }
+
+    /**
+     * The measures of a run.
+     */
+    public static class Result {
+
+        protected final Mode mode;
+
+        protected final boolean listenerEnabled;
+
+        protected final String folderPath;
+
+        protected final int documents;
+
+        protected final double docsPerSecond;
+
+        protected final double p50Millis;
+
+        protected final double p99Millis;
+
+        protected final long allocatedBytesPerDocument;
+
+        protected Result(Mode mode, boolean listenerEnabled, String folderPath, long[] latencies, long[] allocations,
+                long elapsedNanos) {
+            this.mode = mode;
+            this.listenerEnabled = listenerEnabled;
+            this.folderPath = folderPath;
+            this.documents = latencies.length;
+            this.docsPerSecond = documents * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(elapsedNanos, 1);
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            this.p50Millis = percentile(sorted, 0.50) / 1e6;
+            this.p99Millis = percentile(sorted, 0.99) / 1e6;
+            this.allocatedBytesPerDocument = documents > 0 ? Arrays.stream(allocations).sum() / documents : 0;
+        }
+
+        protected static long percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1)];
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public boolean isListenerEnabled() {
+            return listenerEnabled;
+        }
+
+        /**
+         * @return the folder holding the documents of the run
+         */
+        public String getFolderPath() {
+            return folderPath;
+        }
+
+        public int getDocuments() {
+            return documents;
+        }
+
+        public double getDocsPerSecond() {
+            return docsPerSecond;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        /**
+         * @return the bytes allocated by the creating thread, synchronous listeners included
+         */
+        public long getAllocatedBytesPerDocument() {
+            return allocatedBytesPerDocument;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-6s listener=%-5s %5d docs %8.1f docs/s p50=%7.2fms p99=%7.2fms %,12d B/doc", mode,
+                    listenerEnabled, documents, docsPerSecond, p50Millis, p99Millis, allocatedBytesPerDocument);
+        }
+    }
+
+}
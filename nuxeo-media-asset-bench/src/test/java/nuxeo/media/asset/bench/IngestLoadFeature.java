@@ -0,0 +1,36 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.bench;
+
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.RunnerFeature;
+
+import nuxeo.media.asset.test.features.FilemanagerTestFeature;
+import nuxeo.media.asset.test.features.MediaAssetTestFeature;
+
+/**
+ * The media asset runtime with the file manager and the 3D zip content, the DAM converters being disabled so that
+ * only the media asset plugin is measured.
+ */
+@Features({ MediaAssetTestFeature.class, FilemanagerTestFeature.class })
+@Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+public class IngestLoadFeature implements RunnerFeature {
+}
@@ -0,0 +1,89 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Measures the overhead of the media asset plugin on ingestion: each creation mode runs with the listener enabled
+ * then disabled, after a warm up run. The results are logged and written to target/ingest-load-result.txt.
+ */
+@RunWith(FeaturesRunner.class)
+@Features(IngestLoadFeature.class)
+public class TestIngestLoad {
+
+    private static final Logger log = LogManager.getLogger(TestIngestLoad.class);
+
+    @Inject
+    protected CoreSession session;
+
+    @Test
+    public void runIngestLoad() throws IOException {
+        String root = session.getRootDocument().getPathAsString();
+        IngestLoad load = new IngestLoad(session.getRepositoryName());
+        List<IngestLoad.Result> results = new ArrayList<>();
+        TransactionHelper.commitOrRollbackTransaction();
+        try {
+            new IngestLoad(session.getRepositoryName(), 50, 2, IngestLoad.DEFAULT_MIX).run(root, "warmup",
+                    IngestLoad.Mode.CREATE, true);
+            for (IngestLoad.Mode mode : IngestLoad.Mode.values()) {
+                results.add(load.run(root, mode + "-listener", mode, true));
+                results.add(load.run(root, mode + "-nolistener", mode, false));
+            }
+        } finally {
+            TransactionHelper.startTransaction();
+        }
+
+        List<String> lines = new ArrayList<>();
+        for (IngestLoad.Result result : results) {
+            log.info(result);
+            lines.add(result.toString());
+            String path = result.getFolderPath().replace("'", "\\'");
+            Assert.assertEquals(load.getDocuments(),
+                    session.query("SELECT * FROM File WHERE ecm:path STARTSWITH '" + path + "'").size());
+            int media = session.query("SELECT * FROM File WHERE ecm:mixinType IN ('Picture', 'Video', 'Audio', 'ThreeD')"
+                    + " AND ecm:path STARTSWITH '" + path + "'").size();
+            // the importer classifies the blob but the facets are applied by the listener
+            Assert.assertEquals(result.isListenerEnabled(), media > 0);
+        }
+        Path report = Paths.get("target", "ingest-load-result.txt");
+        Files.createDirectories(report.getParent());
+        Files.write(report, lines, StandardCharsets.UTF_8);
+    }
+
+}
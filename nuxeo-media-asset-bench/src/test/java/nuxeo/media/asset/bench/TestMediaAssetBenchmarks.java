@@ -0,0 +1,64 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.bench;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import nuxeo.media.asset.test.features.MediaAssetTestFeature;
+
+/**
+ * Runs the benchmarks in the JVM of the Nuxeo test runtime, the results are written to target/jmh-result.json.
+ * <p>
+ * A subset can be selected with -Dnuxeo.media.asset.bench.include=&lt;regexp&gt;.
+ */
+@RunWith(FeaturesRunner.class)
+@Features(MediaAssetTestFeature.class)
+@Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+public class TestMediaAssetBenchmarks {
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        Options options = new OptionsBuilder().include(
+                System.getProperty("nuxeo.media.asset.bench.include", getClass().getPackage().getName()))
+                                              // forking would lose the Nuxeo runtime
+                                              .forks(0)
+                                              .warmupIterations(3)
+                                              .warmupTime(TimeValue.seconds(2))
+                                              .measurementIterations(5)
+                                              .measurementTime(TimeValue.seconds(2))
+                                              .addProfiler(GCProfiler.class)
+                                              .resultFormat(ResultFormatType.JSON)
+                                              .result("target/jmh-result.json")
+                                              .build();
+        new Runner(options).run();
+    }
+
+}
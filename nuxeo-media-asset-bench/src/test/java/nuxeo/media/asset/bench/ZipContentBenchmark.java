@@ -0,0 +1,81 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import nuxeo.media.asset.test.utils.SampleContent;
+
+/**
+ * Cost of the zip content detection depending on the archive size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ZipContentBenchmark {
+
+    /**
+     * The suzanne.zip or small.zip fixture, or the number of entries of a synthetic archive.
+     */
+    @Param({ "suzanne", "small", "100", "10000" })
+    public String archive;
+
+    protected BenchMediaAssetService service;
+
+    protected Blob blob;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        service = new BenchMediaAssetService(BenchContent.rules(3));
+        switch (archive) {
+        case "suzanne":
+            blob = BenchContent.fixture(SampleContent.ZIP_3D_PATH);
+            break;
+        case "small":
+            blob = BenchContent.fixture(SampleContent.ZIP_PATH);
+            break;
+        default:
+            blob = BenchContent.syntheticZip(Integer.parseInt(archive));
+        }
+    }
+
+    @Benchmark
+    public String zipContentMimetype() {
+        return service.zipContentMimetype(blob);
+    }
+
+    @Benchmark
+    public List<String> facetsFromZip() {
+        return service.getMediaFacets(blob);
+    }
+
+}
@@ -0,0 +1,303 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.archive;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * The state of the inspection of an archive and of the archives nested in it.
+ * <p>
+ * The entry, byte and time limits are shared by all the nesting levels: every entry visited and every byte read by an
+ * inspector, decompressed bytes included, count against the same budget, and the time is counted from the creation of
+ * the inspection. An inspection stopped by a limit or by an unreadable archive is inconclusive. Not thread safe, an
+ * inspection is used by a single thread.
+ */
+public class ArchiveInspection {
+
+    public static final String NESTED_SEPARATOR = "!/";
+
+    protected final Function<String, String> entryMatcher;
+
+    protected final Function<String, ArchiveInspector> nestedInspectors;
+
+    protected final long maxEntries;
+
+    protected final long maxBytes;
+
+    protected final int maxDepth;
+
+    protected final Duration maxTime;
+
+    /**
+     * {@link System#nanoTime()} after which the inspection stops, {@link Long#MAX_VALUE} if there is no time limit.
+     */
+    protected final long deadline;
+
+    protected long entries;
+
+    protected long bytes;
+
+    protected int depth;
+
+    /**
+     * Path of the nested archive being inspected, ending with the separator.
+     */
+    protected String prefix = "";
+
+    protected String matchedEntry;
+
+    protected String matchedMimetype;
+
+    protected String inconclusiveReason;
+
+    protected boolean released;
+
+    /**
+     * @param entryMatcher returns the mimetype of a supported entry name, null if the entry is not supported
+     * @param nestedInspectors returns the inspector of an entry name, null if the entry is not an archive
+     * @param maxEntries the maximum number of entries visited
+     * @param maxBytes the maximum number of bytes read
+     * @param maxDepth the maximum nesting level of the inspected archives, 0 to ignore nested archives
+     */
+    public ArchiveInspection(Function<String, String> entryMatcher,
+            Function<String, ArchiveInspector> nestedInspectors, long maxEntries, long maxBytes, int maxDepth) {
+        this(entryMatcher, nestedInspectors, maxEntries, maxBytes, maxDepth, Duration.ZERO);
+    }
+
+    /**
+     * @param entryMatcher returns the mimetype of a supported entry name, null if the entry is not supported
+     * @param nestedInspectors returns the inspector of an entry name, null if the entry is not an archive
+     * @param maxEntries the maximum number of entries visited
+     * @param maxBytes the maximum number of bytes read
+     * @param maxDepth the maximum nesting level of the inspected archives, 0 to ignore nested archives
+     * @param maxTime the maximum duration of the inspection, zero or negative for no limit
+     */
+    public ArchiveInspection(Function<String, String> entryMatcher,
+            Function<String, ArchiveInspector> nestedInspectors, long maxEntries, long maxBytes, int maxDepth,
+            Duration maxTime) {
+        this.entryMatcher = entryMatcher;
+        this.nestedInspectors = nestedInspectors;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxDepth = maxDepth;
+        this.maxTime = maxTime;
+        this.deadline = maxTime.isZero() || maxTime.isNegative() ? Long.MAX_VALUE
+                : System.nanoTime() + maxTime.toNanos();
+    }
+
+    /**
+     * @param name the name of an archive entry, directories end with a slash
+     * @return the mimetype of the entry if supported, null otherwise
+     * @throws ArchiveLimitException if too many entries were visited or if the time is up
+     */
+    public String visitEntry(String name) throws ArchiveLimitException {
+        skipEntry();
+        String mimetype = name.endsWith("/") ? null : entryMatcher.apply(name);
+        if (mimetype != null) {
+            matchedEntry = prefix + name;
+            matchedMimetype = mimetype;
+        }
+        return mimetype;
+    }
+
+    /**
+     * Counts an entry that is not a regular file, such as a link or a device, without matching its name.
+     *
+     * @throws ArchiveLimitException if too many entries were visited or if the time is up
+     */
+    public void skipEntry() throws ArchiveLimitException {
+        if (++entries > maxEntries) {
+            throw new ArchiveLimitException(ArchiveLimitException.LIMIT_ENTRIES,
+                    "More than " + maxEntries + " archive entries");
+        }
+        checkTime();
+    }
+
+    /**
+     * @param name the name of an archive entry
+     * @return true if the entry is an archive that can be inspected at the current nesting level
+     */
+    public boolean isNestedArchive(String name) {
+        return depth < maxDepth && !name.endsWith("/") && nestedInspectors.apply(name) != null;
+    }
+
+    /**
+     * @param name the name of an archive entry
+     * @param stream the entry content, not closed
+     * @return the mimetype of the first supported entry of the nested archive, null if none
+     */
+    public String inspectNested(String name, InputStream stream) throws IOException {
+        ArchiveInspector inspector = depth < maxDepth ? nestedInspectors.apply(name) : null;
+        if (inspector == null) {
+            return null;
+        }
+        String parentPrefix = prefix;
+        depth++;
+        prefix = parentPrefix + name + NESTED_SEPARATOR;
+        try {
+            return inspector.inspect(stream, this);
+        } finally {
+            depth--;
+            prefix = parentPrefix;
+        }
+    }
+
+    /**
+     * @param count a number of bytes read
+     * @throws ArchiveLimitException if too many bytes were read or if the time is up
+     */
+    public void addBytes(long count) throws ArchiveLimitException {
+        bytes += count;
+        if (bytes > maxBytes) {
+            throw new ArchiveLimitException(ArchiveLimitException.LIMIT_BYTES,
+                    "More than " + maxBytes + " bytes read from the archive");
+        }
+        checkTime();
+    }
+
+    /**
+     * Forgets the entries visited after the given count, for an inspector visiting the same entries again another way
+     * after a failed attempt. The bytes read are still counted.
+     *
+     * @param count the number of entries visited before the failed attempt
+     */
+    public void resetEntries(long count) {
+        entries = count;
+    }
+
+    /**
+     * @throws ArchiveLimitException if the inspection lasts longer than allowed
+     */
+    public void checkTime() throws ArchiveLimitException {
+        if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+            throw new ArchiveLimitException(ArchiveLimitException.LIMIT_TIME,
+                    "Archive inspection longer than " + maxTime);
+        }
+    }
+
+    /**
+     * Marks the inspection as stopped before reaching a conclusion.
+     *
+     * @param reason the exceeded limit, or why the archive could not be read
+     */
+    public void setInconclusive(String reason) {
+        inconclusiveReason = reason;
+    }
+
+    /**
+     * @return true if the inspection stopped on a limit or on an unreadable archive before finding a supported entry
+     */
+    public boolean isInconclusive() {
+        return inconclusiveReason != null && matchedMimetype == null;
+    }
+
+    /**
+     * @return why the inspection is inconclusive, null if it is not
+     */
+    public String getInconclusiveReason() {
+        return isInconclusive() ? inconclusiveReason : null;
+    }
+
+    /**
+     * Gives the archive back to be classified as a plain file, for an inspector registered for a mimetype that does
+     * not always denote an archive. Ignored for nested archives.
+     */
+    public void release() {
+        if (depth == 0) {
+            released = true;
+        }
+    }
+
+    /**
+     * @return true if the archive is classified from its entries, false if it was released to be classified as a plain
+     *         file
+     */
+    public boolean isClaimed() {
+        return !released || matchedMimetype != null;
+    }
+
+    /**
+     * @param stream a stream read by an inspector
+     * @return a stream counting the bytes read or skipped against the limit, closing it does not close the input
+     */
+    public InputStream count(InputStream stream) {
+        return new FilterInputStream(stream) {
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    addBytes(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    addBytes(n);
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                if (skipped > 0) {
+                    addBytes(skipped);
+                }
+                return skipped;
+            }
+
+            @Override
+            public void close() {
+                // the input is owned by the caller
+            }
+        };
+    }
+
+    /**
+     * @return the path of the supported entry, the names of the nested archives included, null if none
+     */
+    public String getMatchedEntry() {
+        return matchedEntry;
+    }
+
+    /**
+     * @return the mimetype of the supported entry, null if none
+     */
+    public String getMatchedMimetype() {
+        return matchedMimetype;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * Looks for a supported entry in an archive without extracting it.
+ * <p>
+ * Implementations are registered by container mimetype on the {@code archiveInspector} extension point of the media
+ * asset service. They must be stateless: a single instance inspects archives concurrently, all the state of an
+ * inspection being held by the {@link ArchiveInspection}. Every entry is reported to
+ * {@link ArchiveInspection#visitEntry(String)}, the supported entry being the first one it returns a mimetype for.
+ */
+public interface ArchiveInspector {
+
+    /**
+     * @param blob the archive
+     * @param inspection the inspection matching the entries and enforcing the limits
+     * @return the mimetype of the first supported entry, null if none
+     * @throws ArchiveLimitException if a limit of the inspection is exceeded
+     */
+    default String inspect(Blob blob, ArchiveInspection inspection) throws IOException {
+        try (InputStream stream = blob.getStream()) {
+            return inspect(stream, inspection);
+        }
+    }
+
+    /**
+     * Inspects an archive read sequentially, used for nested archives. The stream is not closed.
+     *
+     * @param stream the archive content
+     * @param inspection the inspection matching the entries and enforcing the limits
+     * @return the mimetype of the first supported entry, null if none
+     * @throws ArchiveLimitException if a limit of the inspection is exceeded
+     */
+    String inspect(InputStream stream, ArchiveInspection inspection) throws IOException;
+
+}
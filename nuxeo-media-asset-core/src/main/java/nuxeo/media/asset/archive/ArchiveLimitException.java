@@ -0,0 +1,54 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.archive;
+
+import java.io.IOException;
+
+/**
+ * Raised when an archive inspection visits more entries, reads more bytes or takes longer than allowed.
+ */
+public class ArchiveLimitException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String LIMIT_ENTRIES = "entries";
+
+    public static final String LIMIT_BYTES = "bytes";
+
+    public static final String LIMIT_TIME = "time";
+
+    protected final String limit;
+
+    /**
+     * @param limit the exceeded limit, one of the {@code LIMIT_} constants
+     */
+    public ArchiveLimitException(String limit, String message) {
+        super(message);
+        this.limit = limit;
+    }
+
+    /**
+     * @return the exceeded limit, one of the {@code LIMIT_} constants
+     */
+    public String getLimit() {
+        return limit;
+    }
+
+}
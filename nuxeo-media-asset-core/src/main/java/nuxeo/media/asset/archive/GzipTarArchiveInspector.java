@@ -0,0 +1,59 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.archive;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+
+/**
+ * Inspects gzip compressed tar archives, decompressing them on the fly.
+ * <p>
+ * A gzip compressed file is not necessarily an archive: if the decompressed content is not a tar archive, or if none
+ * of its entries is supported, the file is released and classified as any other compressed file.
+ */
+public class GzipTarArchiveInspector extends TarArchiveInspector {
+
+    @Override
+    public String inspect(InputStream stream, ArchiveInspection inspection) throws IOException {
+        try (InputStream gzipInputStream = new BufferedInputStream(new GZIPInputStream(inspection.count(stream)))) {
+            String mimetype = isTar(gzipInputStream) ? super.inspect(gzipInputStream, inspection) : null;
+            if (mimetype == null) {
+                inspection.release();
+            }
+            return mimetype;
+        }
+    }
+
+    /**
+     * @return true if the stream starts with a tar header, the stream is reset to its start
+     */
+    protected static boolean isTar(InputStream stream) throws IOException {
+        stream.mark(TarConstants.DEFAULT_RCDSIZE);
+        byte[] header = stream.readNBytes(TarConstants.DEFAULT_RCDSIZE);
+        stream.reset();
+        return TarArchiveInputStream.matches(header, header.length);
+    }
+
+}
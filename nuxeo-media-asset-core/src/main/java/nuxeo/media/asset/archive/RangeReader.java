@@ -0,0 +1,181 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.archive;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.blob.BlobManager;
+import org.nuxeo.ecm.core.blob.BlobProvider;
+import org.nuxeo.ecm.core.blob.ByteRange;
+import org.nuxeo.ecm.core.blob.ManagedBlob;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Random access to a range of bytes of a binary.
+ */
+public interface RangeReader extends Closeable {
+
+    /**
+     * @return the length of the binary
+     */
+    long length() throws IOException;
+
+    /**
+     * @param offset the position of the first byte
+     * @param length the number of bytes to read
+     * @return a buffer holding exactly the requested bytes
+     */
+    ByteBuffer read(long offset, int length) throws IOException;
+
+    /**
+     * @return a reader on the local file of the blob if any, else a reader on byte ranges of the blob if its provider
+     *         supports them. Null otherwise, the blob is then better streamed once than read by ranges.
+     */
+    static RangeReader of(Blob blob) throws IOException {
+        File file = blob.getFile();
+        if (file != null) {
+            return new FileRangeReader(file);
+        }
+        if (blob instanceof ManagedBlob && blob.getLength() >= 0) {
+            ManagedBlob managedBlob = (ManagedBlob) blob;
+            BlobProvider provider = Framework.getService(BlobManager.class)
+                                             .getBlobProvider(managedBlob.getProviderId());
+            if (provider != null && provider.allowByteRange()) {
+                return new BlobRangeReader(provider, managedBlob);
+            }
+        }
+        return null;
+    }
+
+    class FileRangeReader implements RangeReader {
+
+        protected final FileChannel channel;
+
+        public FileRangeReader(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+
+        @Override
+        public long length() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public ByteBuffer read(long offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads ranges of a managed blob through its blob provider, only the requested bytes are transferred.
+     */
+    class BlobRangeReader implements RangeReader {
+
+        protected final BlobProvider provider;
+
+        protected final ManagedBlob blob;
+
+        public BlobRangeReader(BlobProvider provider, ManagedBlob blob) {
+            this.provider = provider;
+            this.blob = blob;
+        }
+
+        @Override
+        public long length() {
+            return blob.getLength();
+        }
+
+        @Override
+        public ByteBuffer read(long offset, int length) throws IOException {
+            if (length == 0) {
+                return ByteBuffer.allocate(0);
+            }
+            try (InputStream stream = provider.getStream(blob.getKey(),
+                    ByteRange.inclusive(offset, offset + length - 1))) {
+                byte[] bytes = stream.readNBytes(length);
+                if (bytes.length != length) {
+                    throw new EOFException();
+                }
+                return ByteBuffer.wrap(bytes);
+            }
+        }
+
+        @Override
+        public void close() {
+            // streams are closed after each read
+        }
+    }
+
+    /**
+     * Counts the bytes read from another reader.
+     */
+    class CountingRangeReader implements RangeReader {
+
+        protected final RangeReader reader;
+
+        protected long bytesRead;
+
+        public CountingRangeReader(RangeReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public long length() throws IOException {
+            return reader.length();
+        }
+
+        @Override
+        public ByteBuffer read(long offset, int length) throws IOException {
+            ByteBuffer buffer = reader.read(offset, length);
+            bytesRead += buffer.remaining();
+            return buffer;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+}
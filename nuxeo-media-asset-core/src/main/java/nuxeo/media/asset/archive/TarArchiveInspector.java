@@ -0,0 +1,63 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+/**
+ * Inspects tar archives by streaming their entry headers, the content of the entries is skipped.
+ */
+public class TarArchiveInspector implements ArchiveInspector {
+
+    @Override
+    public String inspect(InputStream stream, ArchiveInspection inspection) throws IOException {
+        try (TarArchiveInputStream tarInputStream = new TarArchiveInputStream(inspection.count(stream))) {
+            TarArchiveEntry entry;
+            while ((entry = tarInputStream.getNextTarEntry()) != null) {
+                if (!isRegularFile(entry)) {
+                    inspection.skipEntry();
+                    continue;
+                }
+                String name = entry.getName();
+                String mimetype = inspection.visitEntry(name);
+                if (mimetype == null) {
+                    mimetype = inspection.inspectNested(name, tarInputStream);
+                }
+                if (mimetype != null) {
+                    return mimetype;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@link TarArchiveEntry#isFile()} is also true for links and devices, their names say nothing of their content.
+     */
+    protected static boolean isRegularFile(TarArchiveEntry entry) {
+        return entry.isFile() && !entry.isSymbolicLink() && !entry.isLink() && !entry.isCharacterDevice()
+                && !entry.isBlockDevice() && !entry.isFIFO();
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * Inspects zip archives from their central directory, the archive is only streamed when the central directory cannot
+ * be read or when it lists nested archives but no supported entry. Blobs without a local file nor byte range access
+ * are streamed at once: reading their tail would already transfer the whole archive.
+ */
+public class ZipArchiveInspector implements ArchiveInspector {
+
+    private static final Logger log = LogManager.getLogger(ZipArchiveInspector.class);
+
+    @Override
+    public String inspect(Blob blob, ArchiveInspection inspection) throws IOException {
+        boolean hasNestedArchive = false;
+        long entries = inspection.getEntries();
+        try (RangeReader blobReader = RangeReader.of(blob)) {
+            if (blobReader != null) {
+                RangeReader.CountingRangeReader reader = new RangeReader.CountingRangeReader(blobReader);
+                String[] mimetype = new String[1];
+                boolean[] nested = new boolean[1];
+                ArchiveLimitException[] limit = new ArchiveLimitException[1];
+                ZipCentralDirectory.visitEntryNames(reader, ZipCentralDirectory.DEFAULT_MAX_CENTRAL_DIRECTORY_SIZE,
+                        name -> {
+                            try {
+                                mimetype[0] = inspection.visitEntry(name);
+                            } catch (ArchiveLimitException e) {
+                                limit[0] = e;
+                                return false;
+                            }
+                            nested[0] |= inspection.isNestedArchive(name);
+                            return mimetype[0] == null;
+                        });
+                inspection.addBytes(reader.getBytesRead());
+                if (limit[0] != null) {
+                    throw limit[0];
+                }
+                if (mimetype[0] != null || !nested[0]) {
+                    return mimetype[0];
+                }
+                hasNestedArchive = true;
+            }
+        } catch (ZipException e) {
+            log.debug("Cannot read the central directory of {}, streaming the archive: {}", blob.getFilename(),
+                    e.getMessage());
+            // the entries visited before the failure are visited again by the stream
+            inspection.resetEntries(entries);
+        }
+        try (InputStream stream = blob.getStream()) {
+            if (hasNestedArchive) {
+                // the entries were already counted from the central directory, only look into the nested archives
+                return inspectNested(stream, inspection);
+            }
+            return inspect(stream, inspection);
+        }
+    }
+
+    @Override
+    public String inspect(InputStream stream, ArchiveInspection inspection) throws IOException {
+        try (ZipInputStream zipInputStream = new ZipInputStream(inspection.count(stream))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                String name = zipEntry.getName();
+                String mimetype = inspection.visitEntry(name);
+                if (mimetype == null) {
+                    mimetype = inspection.inspectNested(name, zipInputStream);
+                }
+                if (mimetype != null) {
+                    return mimetype;
+                }
+            }
+        }
+        return null;
+    }
+
+    protected String inspectNested(InputStream stream, ArchiveInspection inspection) throws IOException {
+        try (ZipInputStream zipInputStream = new ZipInputStream(inspection.count(stream))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                String mimetype = inspection.inspectNested(zipEntry.getName(), zipInputStream);
+                if (mimetype != null) {
+                    return mimetype;
+                }
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entry names of a zip archive from its central directory.
+ * <p>
+ * Only the end of central directory record and the central directory itself are read, the entries data is never
+ * touched. Archives this reader cannot handle (zip64, truncated or corrupted archives) raise a {@link ZipException}
+ * so that callers can fall back on streaming the archive.
+ */
+public class ZipCentralDirectory {
+
+    protected static final int EOCD_SIGNATURE = 0x06054b50;
+
+    protected static final int CEN_SIGNATURE = 0x02014b50;
+
+    protected static final int EOCD_SIZE = 22;
+
+    protected static final int CEN_SIZE = 46;
+
+    protected static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    public static final int DEFAULT_MAX_CENTRAL_DIRECTORY_SIZE = 16 * 1024 * 1024;
+
+    private ZipCentralDirectory() {
+        // utility class
+    }
+
+    /**
+     * Visits the entry names of the archive in central directory order until the visitor returns false.
+     *
+     * @param reader the archive
+     * @param maxSize the maximum size of the central directory to read
+     * @param visitor called with each entry name, directories end with a slash
+     * @throws ZipException if the central directory cannot be read
+     */
+    public static void visitEntryNames(RangeReader reader, int maxSize, Predicate<String> visitor)
+            throws IOException {
+        long length = reader.length();
+        if (length < EOCD_SIZE) {
+            throw new ZipException("Not a zip archive");
+        }
+        long tailStart = Math.max(0, length - EOCD_SIZE - MAX_COMMENT_SIZE);
+        ByteBuffer tail = reader.read(tailStart, (int) (length - tailStart)).order(ByteOrder.LITTLE_ENDIAN);
+        int eocd = findEndOfCentralDirectory(tail);
+        if (eocd < 0) {
+            throw new ZipException("End of central directory not found");
+        }
+        int entryCount = Short.toUnsignedInt(tail.getShort(eocd + 10));
+        long size = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+        long offset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+        if (entryCount == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 archives are not supported");
+        }
+        // the central directory ends where the record starts, whatever data is prepended to the archive
+        long start = tailStart + eocd - size;
+        if (start < 0 || size > maxSize) {
+            throw new ZipException("Invalid or too large central directory: " + size);
+        }
+        ByteBuffer directory;
+        if (start >= tailStart) {
+            directory = tail.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            directory.position((int) (start - tailStart));
+            directory.limit(eocd);
+            directory = directory.slice().order(ByteOrder.LITTLE_ENDIAN);
+        } else {
+            directory = reader.read(start, (int) size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        visitEntries(directory, entryCount, visitor);
+    }
+
+    protected static int findEndOfCentralDirectory(ByteBuffer tail) {
+        for (int i = tail.limit() - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                int commentLength = Short.toUnsignedInt(tail.getShort(i + 20));
+                if (i + EOCD_SIZE + commentLength <= tail.limit()) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    protected static void visitEntries(ByteBuffer directory, int entryCount, Predicate<String> visitor)
+            throws ZipException {
+        int position = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (position + CEN_SIZE > directory.limit() || directory.getInt(position) != CEN_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry");
+            }
+            int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+            int nameStart = position + CEN_SIZE;
+            if (nameStart + nameLength > directory.limit()) {
+                throw new ZipException("Invalid central directory entry");
+            }
+            byte[] name = new byte[nameLength];
+            directory.duplicate().position(nameStart).get(name);
+            // like ZipInputStream, names are read as UTF-8 even without the language encoding flag
+            if (!visitor.test(new String(name, StandardCharsets.UTF_8))) {
+                return;
+            }
+            position = nameStart + nameLength + extraLength + commentLength;
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.batch;
+
+import java.io.Serializable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.automation.server.jaxrs.batch.Batch;
+import org.nuxeo.ecm.automation.server.jaxrs.batch.handler.BatchFileInfo;
+import org.nuxeo.ecm.automation.server.jaxrs.batch.handler.impl.DefaultBatchHandler;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.api.Framework;
+
+import nuxeo.media.asset.service.BlobClassification;
+import nuxeo.media.asset.service.MediaAssetService;
+import nuxeo.media.asset.service.MediaClassification;
+
+/**
+ * Batch handler classifying each file when its upload is completed, while its bytes are still in the transient store.
+ * <p>
+ * The classification is stored in the transient store of the batches, keyed by the blob digest, so that the listener
+ * applies it without reading the blob when the document is created from the batch file in a later request, on any
+ * node. It also primes the classification caches.
+ */
+public class MediaAssetBatchHandler extends DefaultBatchHandler {
+
+    private static final Logger log = LogManager.getLogger(MediaAssetBatchHandler.class);
+
+    public static final String NAME = "mediaAsset";
+
+    public static final String CLASSIFICATION_KEY_PREFIX = "mediaasset:classification:";
+
+    public static final String CLASSIFICATION_PARAMETER = "classification";
+
+    @Override
+    public boolean completeUpload(String batchId, String fileIndex, BatchFileInfo fileInfo) {
+        if (!super.completeUpload(batchId, fileIndex, fileInfo)) {
+            return false;
+        }
+        Batch batch = getBatch(batchId);
+        Blob blob = batch != null ? batch.getBlob(fileIndex) : null;
+        if (blob == null) {
+            return true;
+        }
+        // the upload is complete whatever the outcome, the listener classifies the blob if this fails
+        try {
+            MediaClassification classification = Framework.getService(MediaAssetService.class).classify(blob);
+            if (blob.getDigest() != null) {
+                getTransientStore().putParameter(CLASSIFICATION_KEY_PREFIX + blob.getDigest(),
+                        CLASSIFICATION_PARAMETER, new BlobClassification(blob, classification));
+            }
+        } catch (NuxeoException e) {
+            log.warn("Cannot classify the file {} of batch {}", fileIndex, batchId, e);
+        }
+        return true;
+    }
+
+    /**
+     * @param blob a blob
+     * @return the classification computed when a batch file with the same digest, filename and length was uploaded,
+     *         null if none
+     */
+    public MediaClassification getClassification(Blob blob) {
+        if (blob == null || blob.getDigest() == null) {
+            return null;
+        }
+        Serializable classification = getTransientStore().getParameter(CLASSIFICATION_KEY_PREFIX + blob.getDigest(),
+                CLASSIFICATION_PARAMETER);
+        return classification instanceof BlobClassification && ((BlobClassification) classification).isValidFor(blob)
+                ? ((BlobClassification) classification).getClassification()
+                : null;
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.bulk;
+
+import static org.nuxeo.ecm.core.bulk.BulkServiceImpl.STATUS_STREAM;
+import static org.nuxeo.lib.stream.computation.AbstractComputation.INPUT_1;
+import static org.nuxeo.lib.stream.computation.AbstractComputation.OUTPUT_1;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.VersioningOption;
+import org.nuxeo.ecm.core.api.versioning.VersioningService;
+import org.nuxeo.ecm.core.bulk.action.computation.AbstractBulkComputation;
+import org.nuxeo.ecm.core.bulk.message.BulkStatus;
+import org.nuxeo.lib.stream.computation.ComputationContext;
+import org.nuxeo.lib.stream.computation.Topology;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.stream.StreamProcessorTopology;
+
+import nuxeo.media.asset.listener.MediaAssetListener;
+import nuxeo.media.asset.service.MediaAssetService;
+import nuxeo.media.asset.service.MediaFacetDiff;
+
+/**
+ * Bulk action applying the current media type mapping to the documents returned by the command query.
+ * <p>
+ * Only the documents whose facets changed are saved, in one call per batch, without updating their modification
+ * date, logging an audit entry or creating a version. With the {@value #PARAM_DRY_RUN} parameter
+ * nothing is saved. In both cases the command result counts the updated documents ({@value #RESULT_UPDATED}) and each
+ * facet change ({@value #RESULT_ADDED_PREFIX}Facet, {@value #RESULT_REMOVED_PREFIX}Facet).
+ * <p>
+ * When the classification is stored on the documents, it is reused for unchanged content unless the
+ * {@value #PARAM_REDETECT} parameter is set.
+ */
+public class UpdateMediaFacetsAction implements StreamProcessorTopology {
+
+    public static final String ACTION_NAME = "updateMediaFacets";
+
+    public static final String ACTION_FULL_NAME = "bulk/" + ACTION_NAME;
+
+    public static final String PARAM_DRY_RUN = "dryRun";
+
+    public static final String PARAM_REDETECT = "redetect";
+
+    public static final String RESULT_UPDATED = "updated";
+
+    public static final String RESULT_ADDED_PREFIX = "added:";
+
+    public static final String RESULT_REMOVED_PREFIX = "removed:";
+
+    @Override
+    public Topology getTopology(Map<String, String> options) {
+        return Topology.builder()
+                       .addComputation(UpdateMediaFacetsComputation::new,
+                               Arrays.asList(INPUT_1 + ":" + ACTION_FULL_NAME, OUTPUT_1 + ":" + STATUS_STREAM))
+                       .build();
+    }
+
+    public static class UpdateMediaFacetsComputation extends AbstractBulkComputation {
+
+        protected Map<String, Serializable> result = new HashMap<>();
+
+        public UpdateMediaFacetsComputation() {
+            super(ACTION_FULL_NAME);
+        }
+
+        @Override
+        public void startBucket(String bucketKey) {
+            result = new HashMap<>();
+        }
+
+        @Override
+        protected void compute(CoreSession session, List<String> ids, Map<String, Serializable> properties) {
+            boolean dryRun = Boolean.parseBoolean(String.valueOf(properties.get(PARAM_DRY_RUN)));
+            boolean redetect = Boolean.parseBoolean(String.valueOf(properties.get(PARAM_REDETECT)));
+            MediaAssetService mediaAssetService = Framework.getService(MediaAssetService.class);
+            List<DocumentModel> updated = new ArrayList<>();
+            for (DocumentModel doc : loadDocuments(session, ids)) {
+                if (!mediaAssetService.isDocumentSupported(doc)) {
+                    continue;
+                }
+                MediaFacetDiff diff = redetect
+                        ? mediaAssetService.applyMediaFacets(doc,
+                                mediaAssetService.classify((Blob) doc.getPropertyValue("file:content")))
+                        : mediaAssetService.applyMediaFacets(doc);
+                if (diff.isEmpty()) {
+                    continue;
+                }
+                diff.getAdded().forEach(facet -> increment(RESULT_ADDED_PREFIX + facet));
+                diff.getRemoved().forEach(facet -> increment(RESULT_REMOVED_PREFIX + facet));
+                increment(RESULT_UPDATED);
+                // a technical change: no modification date, audit entry or version
+                doc.putContextData(MediaAssetListener.DISABLE_DUBLINCORE_LISTENER, Boolean.TRUE);
+                doc.putContextData(MediaAssetListener.DISABLE_AUDIT_LOGGER, Boolean.TRUE);
+                doc.putContextData(VersioningService.VERSIONING_OPTION, VersioningOption.NONE);
+                updated.add(doc);
+            }
+            if (!dryRun && !updated.isEmpty()) {
+                session.saveDocuments(updated.toArray(new DocumentModel[0]));
+            }
+        }
+
+        @Override
+        public void endBucket(ComputationContext context, BulkStatus delta) {
+            delta.mergeResult(result);
+            super.endBucket(context, delta);
+        }
+
+        protected void increment(String key) {
+            result.merge(key, 1L, (a, b) -> (Long) a + (Long) b);
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.detection;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * Trusts the mimetype already set on the blob, for deployments where it is set by a reliable upstream system. The
+ * generic binary mimetype is not trusted.
+ */
+public class BlobMimetypeDetector implements MimetypeDetector {
+
+    public static final String SOURCE = "blob";
+
+    protected static final String DEFAULT_MIMETYPE = "application/octet-stream";
+
+    @Override
+    public DetectedMimetype detect(Blob blob) {
+        String mimetype = blob.getMimeType();
+        if (StringUtils.isBlank(mimetype) || DEFAULT_MIMETYPE.equals(mimetype)) {
+            return null;
+        }
+        return new DetectedMimetype(mimetype, SOURCE);
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.detection;
+
+/**
+ * A mimetype along with the way it was detected.
+ */
+public class DetectedMimetype {
+
+    public static final DetectedMimetype UNKNOWN = new DetectedMimetype(null, null);
+
+    protected final String mimetype;
+
+    protected final String source;
+
+    public DetectedMimetype(String mimetype, String source) {
+        this.mimetype = mimetype;
+        this.source = source;
+    }
+
+    /**
+     * @return the mimetype, null if unknown
+     */
+    public String getMimetype() {
+        return mimetype;
+    }
+
+    /**
+     * @return how the mimetype was detected, null if unknown
+     */
+    public String getSource() {
+        return source;
+    }
+
+}
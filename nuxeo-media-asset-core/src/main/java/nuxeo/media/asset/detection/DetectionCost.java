@@ -0,0 +1,48 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.detection;
+
+/**
+ * What a {@link MimetypeDetector} reads to detect a mimetype, from the cheapest to the most expensive. The detectors
+ * are asked in this order.
+ */
+public enum DetectionCost {
+
+    /**
+     * Only the blob metadata, nothing is read.
+     */
+    METADATA,
+
+    /**
+     * Only the blob filename.
+     */
+    FILENAME,
+
+    /**
+     * The leading bytes of the blob.
+     */
+    HEADER,
+
+    /**
+     * Possibly the whole blob.
+     */
+    CONTENT
+
+}
@@ -0,0 +1,49 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.detection;
+
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.platform.mimetype.MimetypeNotFoundException;
+import org.nuxeo.ecm.platform.mimetype.interfaces.MimetypeRegistry;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Looks up the extension of the blob filename in the mimetype registry, the content is not read.
+ */
+public class ExtensionMimetypeDetector implements MimetypeDetector {
+
+    public static final String SOURCE = "extension";
+
+    @Override
+    public DetectedMimetype detect(Blob blob) {
+        String extension = FileUtils.getFileExtension(blob.getFilename());
+        if (extension == null) {
+            return null;
+        }
+        try {
+            String mimetype = Framework.getService(MimetypeRegistry.class).getMimetypeFromExtension(extension);
+            return mimetype != null ? new DetectedMimetype(mimetype, SOURCE) : null;
+        } catch (MimetypeNotFoundException e) {
+            return null;
+        }
+    }
+
+}
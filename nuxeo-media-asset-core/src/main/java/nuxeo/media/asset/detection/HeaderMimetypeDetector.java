@@ -0,0 +1,67 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.detection;
+
+import java.io.IOException;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.services.config.ConfigurationService;
+
+/**
+ * Detects the mimetype from the leading bytes of the blob with a {@link MimetypeSniffer}.
+ */
+public class HeaderMimetypeDetector implements MimetypeDetector {
+
+    public static final String SOURCE = "header";
+
+    public static final String MAX_HEADER_SIZE_KEY = "nuxeo.media.asset.service.sniffer.maxHeaderSize";
+
+    protected volatile MimetypeSniffer sniffer;
+
+    @Override
+    public DetectedMimetype detect(Blob blob) throws IOException {
+        MimetypeSniffer current = getSniffer();
+        if (current == null) {
+            return null;
+        }
+        String mimetype = current.sniff(blob);
+        return mimetype != null ? new DetectedMimetype(mimetype, SOURCE) : null;
+    }
+
+    /**
+     * @return the header sniffer, null if disabled
+     */
+    protected MimetypeSniffer getSniffer() {
+        MimetypeSniffer current = sniffer;
+        if (current == null) {
+            ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
+            long maxHeaderSize = configurationService.getLong(MAX_HEADER_SIZE_KEY,
+                    MimetypeSniffer.DEFAULT_MAX_HEADER_SIZE);
+            if (maxHeaderSize <= 0) {
+                return null;
+            }
+            current = new MimetypeSniffer((int) Math.min(maxHeaderSize, Integer.MAX_VALUE));
+            sniffer = current;
+        }
+        return current;
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.detection;
+
+import java.io.IOException;
+
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * Detects the mimetype of a blob. The detectors are chained by {@link DetectionCost} and the first confident answer
+ * wins, so a detector should return null rather than a default mimetype when it is not sure.
+ * <p>
+ * A detector is shared by all the classifications and must be thread safe.
+ */
+public interface MimetypeDetector {
+
+    /**
+     * @param blob the blob to detect
+     * @return the detected mimetype, null if this detector is not confident
+     */
+    DetectedMimetype detect(Blob blob) throws IOException;
+
+}
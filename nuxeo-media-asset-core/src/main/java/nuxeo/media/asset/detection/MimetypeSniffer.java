@@ -0,0 +1,292 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.detection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * Detects the mimetype of the media formats handled by the default media types from their leading bytes.
+ * <p>
+ * At most {@code maxHeaderSize} bytes are read, memory-mapped when the blob is backed by a local file. A signature is
+ * only trusted when the file has no extension or an extension belonging to the detected format, so that formats
+ * sharing a container (office documents in zips, raw pictures in tiffs...) are left to the mimetype registry.
+ */
+public class MimetypeSniffer {
+
+    public static final int DEFAULT_MAX_HEADER_SIZE = 512;
+
+    protected static final Set<String> JPEG_EXTENSIONS = extensions("jpg", "jpeg", "jpe", "jfif");
+
+    protected static final Set<String> ISO_MEDIA_EXTENSIONS = extensions("mp4", "m4v", "mpg4", "m4a", "m4b", "m4p",
+            "mov", "qt", "3gp", "3g2", "heic", "heif", "avif", "f4v");
+
+    protected static final Set<String> MATROSKA_EXTENSIONS = extensions("mkv", "mka", "mk3d", "webm");
+
+    protected static final Set<String> OGG_EXTENSIONS = extensions("ogg", "oga", "ogv", "opus", "spx", "ogx");
+
+    /**
+     * Layer III bitrates in kbit/s by bitrate index, 0 being the free format.
+     */
+    protected static final int[] MPEG1_LAYER3_BITRATES = { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256,
+            320 };
+
+    protected static final int[] MPEG2_LAYER3_BITRATES = { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144,
+            160 };
+
+    protected static final int[] MPEG1_SAMPLE_RATES = { 44100, 48000, 32000 };
+
+    protected final int maxHeaderSize;
+
+    public MimetypeSniffer() {
+        this(DEFAULT_MAX_HEADER_SIZE);
+    }
+
+    public MimetypeSniffer(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    /**
+     * @param blob a blob
+     * @return the detected mimetype, null if the format is not recognized or does not match the file extension
+     */
+    public String sniff(Blob blob) throws IOException {
+        return sniff(readHeader(blob), FileUtils.getFileExtension(blob.getFilename()));
+    }
+
+    /**
+     * @param header the leading bytes of a file
+     * @param extension the file extension, may be null
+     * @return the detected mimetype, null if the format is not recognized or does not match the extension
+     */
+    public String sniff(ByteBuffer header, String extension) {
+        String ext = StringUtils.isBlank(extension) ? null : extension.toLowerCase(Locale.ROOT);
+        byte[] bytes = new byte[Math.min(header.remaining(), maxHeaderSize)];
+        header.duplicate().get(bytes);
+
+        if (startsWith(bytes, 0, 0xFF, 0xD8, 0xFF)) {
+            return accept("image/jpeg", ext, JPEG_EXTENSIONS);
+        } else if (startsWith(bytes, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return accept("image/png", ext, extensions("png"));
+        } else if (startsWith(bytes, 0, "GIF87a") || startsWith(bytes, 0, "GIF89a")) {
+            return accept("image/gif", ext, extensions("gif"));
+        } else if (startsWith(bytes, 0, 'I', 'I', 0x2A, 0x00) || startsWith(bytes, 0, 'M', 'M', 0x00, 0x2A)) {
+            return accept("image/tiff", ext, extensions("tif", "tiff"));
+        } else if (startsWith(bytes, 0, "8BPS")) {
+            return accept("application/photoshop", ext, extensions("psd", "psb"));
+        } else if (startsWith(bytes, 4, "ftyp")) {
+            return sniffIsoMedia(bytes, ext);
+        } else if (startsWith(bytes, 0, 0x1A, 0x45, 0xDF, 0xA3)) {
+            return sniffMatroska(bytes, ext);
+        } else if (startsWith(bytes, 0, 0x06, 0x0E, 0x2B, 0x34, 0x02, 0x05, 0x01, 0x01, 0x0D, 0x01, 0x02)) {
+            return accept("application/mxf", ext, extensions("mxf"));
+        } else if (startsWith(bytes, 0, 0x00, 0x00, 0x00, 0x00, 0x01, 0xBC) && startsWith(bytes, 14, 0xE1, 0xE2)) {
+            return accept("application/gxf", ext, extensions("gxf"));
+        } else if (startsWith(bytes, 0, "ID3") || isMpegAudio(bytes, ext)) {
+            return accept("audio/mpeg", ext, extensions("mp3"));
+        } else if (startsWith(bytes, 0, "RIFF")) {
+            return sniffRiff(bytes, ext);
+        } else if (startsWith(bytes, 0, "fLaC")) {
+            return accept("audio/flac", ext, extensions("flac"));
+        } else if (startsWith(bytes, 0, "OggS")) {
+            return sniffOgg(bytes, ext);
+        } else if (startsWith(bytes, 0, 'P', 'K', 0x03, 0x04) || startsWith(bytes, 0, 'P', 'K', 0x05, 0x06)) {
+            return accept("application/zip", ext, extensions("zip"));
+        } else if (startsWith(bytes, 0, 0x1F, 0x8B, 0x08)) {
+            return accept("application/gzip", ext, extensions("gz", "tgz"));
+        } else if (startsWith(bytes, 257, "ustar")) {
+            return accept("application/x-tar", ext, extensions("tar"));
+        }
+        return null;
+    }
+
+    protected String sniffIsoMedia(byte[] bytes, String ext) {
+        if (ext != null && !ISO_MEDIA_EXTENSIONS.contains(ext)) {
+            return null;
+        }
+        if (bytes.length < 12) {
+            return null;
+        }
+        String brand = new String(bytes, 8, 4, StandardCharsets.ISO_8859_1);
+        if (brand.startsWith("M4A") || brand.startsWith("M4B") || brand.startsWith("M4P")
+                || extensions("m4a", "m4b", "m4p").contains(ext)) {
+            return "audio/mp4";
+        } else if ("qt  ".equals(brand) || extensions("mov", "qt").contains(ext)) {
+            return "video/quicktime";
+        } else if (brand.startsWith("3gp")) {
+            return "video/3gpp";
+        } else if (brand.startsWith("3g2")) {
+            return "video/3gpp2";
+        } else if (Arrays.asList("heic", "heix", "heif", "mif1", "msf1").contains(brand)) {
+            return "image/heic";
+        } else if ("avif".equals(brand)) {
+            return "image/avif";
+        } else if ("crx ".equals(brand)) {
+            // raw pictures, left to the registry
+            return null;
+        }
+        return "video/mp4";
+    }
+
+    protected String sniffMatroska(byte[] bytes, String ext) {
+        if (ext != null && !MATROSKA_EXTENSIONS.contains(ext)) {
+            return null;
+        }
+        // the DocType element is part of the EBML header
+        if (indexOf(bytes, "webm") >= 0) {
+            return "video/webm";
+        } else if (indexOf(bytes, "matroska") >= 0) {
+            return "mka".equals(ext) ? "audio/x-matroska" : "video/x-matroska";
+        }
+        return null;
+    }
+
+    protected String sniffRiff(byte[] bytes, String ext) {
+        if (startsWith(bytes, 8, "WAVE")) {
+            return accept("audio/x-wav", ext, extensions("wav"));
+        } else if (startsWith(bytes, 8, "AVI ")) {
+            return accept("video/x-msvideo", ext, extensions("avi"));
+        } else if (startsWith(bytes, 8, "WEBP")) {
+            return accept("image/webp", ext, extensions("webp"));
+        }
+        return null;
+    }
+
+    protected String sniffOgg(byte[] bytes, String ext) {
+        if (ext != null && !OGG_EXTENSIONS.contains(ext)) {
+            return null;
+        }
+        // first page header is 27 bytes plus the segment table, the codec header follows
+        if (bytes.length < 27) {
+            return null;
+        }
+        int codec = 27 + Byte.toUnsignedInt(bytes[26]);
+        if (startsWith(bytes, codec, 0x01, 'v', 'o', 'r', 'b', 'i', 's') || startsWith(bytes, codec, "OpusHead")
+                || startsWith(bytes, codec, "Speex") || startsWith(bytes, codec, 0x7F, 'F', 'L', 'A', 'C')) {
+            return "audio/ogg";
+        } else if (startsWith(bytes, codec, 0x80, 't', 'h', 'e', 'o', 'r', 'a')) {
+            return "video/ogg";
+        }
+        return null;
+    }
+
+    /**
+     * A frame header is only a few bits, common in binary files: unless the extension is mp3, it must be followed by a
+     * second frame header of the same version, layer and sample rate, at the offset given by the first frame length.
+     */
+    protected static boolean isMpegAudio(byte[] bytes, String ext) {
+        int length = getMpegAudioFrameLength(bytes, 0);
+        if (length <= 0) {
+            return false;
+        } else if ("mp3".equals(ext)) {
+            return true;
+        }
+        return getMpegAudioFrameLength(bytes, length) > 0 && (bytes[1] & 0xFE) == (bytes[length + 1] & 0xFE)
+                && (bytes[2] & 0x0C) == (bytes[length + 2] & 0x0C);
+    }
+
+    /**
+     * @return the length of the MPEG audio layer III frame starting at the offset, -1 if there is no valid frame header
+     *         with a known bitrate
+     */
+    protected static int getMpegAudioFrameLength(byte[] bytes, int offset) {
+        if (offset < 0 || bytes.length < offset + 4 || Byte.toUnsignedInt(bytes[offset]) != 0xFF) {
+            return -1;
+        }
+        int b1 = Byte.toUnsignedInt(bytes[offset + 1]);
+        int b2 = Byte.toUnsignedInt(bytes[offset + 2]);
+        int version = (b1 >> 3) & 0x03;
+        int bitrateIndex = b2 >> 4;
+        int sampleRateIndex = (b2 >> 2) & 0x03;
+        boolean sync = (b1 & 0xE0) == 0xE0;
+        boolean layer3 = ((b1 >> 1) & 0x03) == 0x01;
+        // reserved version, free or bad bitrate, reserved sample rate
+        if (!sync || !layer3 || version == 0x01 || bitrateIndex == 0 || bitrateIndex == 0x0F
+                || sampleRateIndex == 0x03) {
+            return -1;
+        }
+        boolean mpeg1 = version == 0x03;
+        int bitrate = (mpeg1 ? MPEG1_LAYER3_BITRATES : MPEG2_LAYER3_BITRATES)[bitrateIndex] * 1000;
+        // MPEG 2.5 halves the MPEG 2 sample rates, which halve the MPEG 1 ones
+        int sampleRate = MPEG1_SAMPLE_RATES[sampleRateIndex] >> (mpeg1 ? 0 : version == 0x02 ? 1 : 2);
+        int padding = (b2 >> 1) & 0x01;
+        return (mpeg1 ? 144 : 72) * bitrate / sampleRate + padding;
+    }
+
+    protected static String accept(String mimetype, String ext, Set<String> extensions) {
+        return ext == null || extensions.contains(ext) ? mimetype : null;
+    }
+
+    protected ByteBuffer readHeader(Blob blob) throws IOException {
+        File file = blob.getFile();
+        if (file != null) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), maxHeaderSize));
+            }
+        }
+        try (InputStream stream = blob.getStream()) {
+            return ByteBuffer.wrap(stream.readNBytes(maxHeaderSize));
+        }
+    }
+
+    protected static boolean startsWith(byte[] bytes, int offset, int... expected) {
+        if (offset < 0 || bytes.length < offset + expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (Byte.toUnsignedInt(bytes[offset + i]) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static boolean startsWith(byte[] bytes, int offset, String expected) {
+        return startsWith(bytes, offset, expected.chars().toArray());
+    }
+
+    protected static int indexOf(byte[] bytes, String value) {
+        byte[] needle = value.getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = 0; i <= bytes.length - needle.length; i++) {
+            if (startsWith(bytes, i, value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    protected static Set<String> extensions(String... extensions) {
+        return new HashSet<>(Arrays.asList(extensions));
+    }
+
+}
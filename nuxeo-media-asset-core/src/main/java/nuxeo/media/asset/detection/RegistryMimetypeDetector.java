@@ -0,0 +1,40 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.detection;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.platform.mimetype.interfaces.MimetypeRegistry;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Asks the mimetype registry, which may read the whole blob when the filename is not conclusive.
+ */
+public class RegistryMimetypeDetector implements MimetypeDetector {
+
+    public static final String SOURCE = "registry";
+
+    @Override
+    public DetectedMimetype detect(Blob blob) {
+        MimetypeRegistry mimetypeRegistry = Framework.getService(MimetypeRegistry.class);
+        String mimetype = mimetypeRegistry.getMimetypeFromFilenameAndBlobWithDefault(blob.getFilename(), blob, null);
+        return mimetype != null ? new DetectedMimetype(mimetype, SOURCE) : null;
+    }
+
+}
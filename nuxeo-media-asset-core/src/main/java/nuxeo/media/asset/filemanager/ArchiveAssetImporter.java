@@ -0,0 +1,433 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.filemanager;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.ecm.core.transientstore.api.TransientStore;
+import org.nuxeo.ecm.core.transientstore.api.TransientStoreService;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.services.config.ConfigurationService;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import nuxeo.media.asset.archive.ArchiveInspection;
+import nuxeo.media.asset.archive.ArchiveLimitException;
+import nuxeo.media.asset.service.BlobClassification;
+import nuxeo.media.asset.service.MediaAssetService;
+import nuxeo.media.asset.service.MediaClassification;
+
+/**
+ * Imports each entry of an archive as an asset document, in a folder named after the archive. The directories of the
+ * entries are mirrored by sub-folders.
+ * <p>
+ * The folder is created in the transaction of the import, the entries are imported in the background by an
+ * {@link ArchiveImportWork} scheduled after its commit: nothing is imported if the transaction of the import is rolled
+ * back. The archive is kept in a transient store until then.
+ * <p>
+ * The archive is streamed: an entry is copied to a temporary blob when it is reached and deleted once its document is
+ * created, at most {@value #BATCH_SIZE_KEY} entries being staged at once. The entries visited, the bytes staged and the
+ * time spent are bounded as for the inspection of an archive. The entries are classified concurrently on a bounded
+ * pool. Hidden entries and entries that are not media assets are skipped. The documents are created by batches, each
+ * batch in its own transaction: if the import of the entries fails, the folder and the entries already imported are
+ * deleted.
+ */
+public class ArchiveAssetImporter {
+
+    private static final Logger log = LogManager.getLogger(ArchiveAssetImporter.class);
+
+    public static final String THREADS_KEY = "nuxeo.media.asset.importer.archive.threads";
+
+    public static final String BATCH_SIZE_KEY = "nuxeo.media.asset.importer.archive.batchSize";
+
+    public static final String FOLDER_TYPE_KEY = "nuxeo.media.asset.importer.archive.folderType";
+
+    public static final String TRANSIENT_STORE_KEY = "nuxeo.media.asset.importer.archive.transientStore";
+
+    public static final int DEFAULT_THREADS = 4;
+
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    public static final String DEFAULT_FOLDER_TYPE = "Folder";
+
+    public static final String DEFAULT_TRANSIENT_STORE = "default";
+
+    public static final String MAX_ENTRIES_KEY = "nuxeo.media.asset.importer.archive.maxEntries";
+
+    public static final String MAX_BYTES_KEY = "nuxeo.media.asset.importer.archive.maxBytes";
+
+    public static final String MAX_TIME_KEY = "nuxeo.media.asset.importer.archive.maxTime";
+
+    public static final long DEFAULT_MAX_ENTRIES = 100_000;
+
+    public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024 * 1024;
+
+    public static final Duration DEFAULT_MAX_TIME = Duration.ofHours(1);
+
+    protected final CoreSession session;
+
+    protected final String docType;
+
+    protected final int threads;
+
+    protected final int batchSize;
+
+    protected final String folderType;
+
+    protected final long maxEntries;
+
+    protected final long maxBytes;
+
+    protected final Duration maxTime;
+
+    protected int imported;
+
+    protected int skipped;
+
+    public ArchiveAssetImporter(CoreSession session, String docType) {
+        ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
+        this.session = session;
+        this.docType = docType;
+        this.threads = Math.max(1, configurationService.getInteger(THREADS_KEY, DEFAULT_THREADS));
+        this.batchSize = Math.max(1, configurationService.getInteger(BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE));
+        this.folderType = configurationService.getString(FOLDER_TYPE_KEY, DEFAULT_FOLDER_TYPE);
+        this.maxEntries = configurationService.getLong(MAX_ENTRIES_KEY, DEFAULT_MAX_ENTRIES);
+        this.maxBytes = configurationService.getLong(MAX_BYTES_KEY, DEFAULT_MAX_BYTES);
+        this.maxTime = configurationService.getDuration(MAX_TIME_KEY, DEFAULT_MAX_TIME);
+    }
+
+    /**
+     * Creates the folder of the archive in the current transaction, its entries are imported after commit.
+     *
+     * @param archive the archive
+     * @param parentPath the path of the container of the folder to create
+     * @return the folder receiving the entries, null if the blob is not an archive that can be streamed
+     */
+    public DocumentModel importArchive(Blob archive, String parentPath) throws IOException {
+        try (InputStream stream = new BufferedInputStream(archive.getStream());
+                ArchiveInputStream entries = openArchive(stream)) {
+            if (entries == null) {
+                return null;
+            }
+        }
+        DocumentModel folder = createFolder(archive, parentPath);
+        getTransientStore().putBlobs(folder.getId(), List.of(archive));
+        Framework.getService(WorkManager.class)
+                 .schedule(new ArchiveImportWork(session.getRepositoryName(), session.getPrincipal().getName(),
+                         folder.getId(), archive.getFilename(), docType), WorkManager.Scheduling.ENQUEUE, true);
+        return folder;
+    }
+
+    /**
+     * Imports the entries of the archive, each batch in its own transaction if none is active. The folder and the
+     * entries already imported are deleted if the import fails.
+     *
+     * @param archive the archive
+     * @param folderRef the folder receiving the entries
+     * @throws ArchiveLimitException if a limit is exceeded
+     */
+    public void importEntries(Blob archive, DocumentRef folderRef) throws IOException {
+        try (InputStream stream = new BufferedInputStream(archive.getStream());
+                ArchiveInputStream entries = openArchive(stream)) {
+            if (entries == null) {
+                throw new IOException("Cannot stream the archive " + archive.getFilename());
+            }
+            String folderPath = TransactionHelper.runInTransaction(
+                    () -> session.getDocument(folderRef).getPathAsString());
+            ExecutorService executor = newExecutor();
+            try {
+                importEntries(archive, entries, folderPath, executor);
+            } catch (IOException | RuntimeException e) {
+                deleteFolder(folderRef);
+                throw e;
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries imported so far
+     */
+    public int getImported() {
+        return imported;
+    }
+
+    /**
+     * @return the number of hidden or unsupported entries skipped so far
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return the store keeping the archives until their entries are imported
+     */
+    public static TransientStore getTransientStore() {
+        ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
+        String storeName = configurationService.getString(TRANSIENT_STORE_KEY, DEFAULT_TRANSIENT_STORE);
+        return Framework.getService(TransientStoreService.class).getStore(storeName);
+    }
+
+    protected ArchiveInputStream openArchive(InputStream stream) {
+        try {
+            return new ArchiveStreamFactory().createArchiveInputStream(stream);
+        } catch (ArchiveException e) {
+            log.debug("Cannot stream the archive: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    protected ExecutorService newExecutor() {
+        // the caller classifies the entry when the pool is busy, bounding the staged entries
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads),
+                new ThreadFactoryBuilder().setNameFormat("media-asset-archive-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    protected DocumentModel createFolder(Blob archive, String parentPath) {
+        String name = StringUtils.defaultIfBlank(FilenameUtils.getBaseName(archive.getFilename()), "archive");
+        DocumentModel model = session.createDocumentModel(parentPath, name, folderType);
+        model.setPropertyValue("dc:title", name);
+        return session.createDocument(model);
+    }
+
+    /**
+     * Deletes the folder and the entries already committed.
+     */
+    protected void deleteFolder(DocumentRef folderRef) {
+        TransactionHelper.runInTransaction(() -> {
+            if (session.exists(folderRef)) {
+                session.removeDocument(folderRef);
+                session.save();
+            }
+        });
+    }
+
+    /**
+     * Streams the entries, within the limits of an {@link ArchiveInspection}: the entries visited, the bytes staged and
+     * the time spent are bounded.
+     */
+    protected void importEntries(Blob archive, ArchiveInputStream entries, String folderPath,
+            ExecutorService executor) throws IOException {
+        MediaAssetService mediaAssetService = Framework.getService(MediaAssetService.class);
+        ArchiveInspection inspection = new ArchiveInspection(name -> null, name -> null, maxEntries, maxBytes, 0,
+                maxTime);
+        Set<String> folders = new HashSet<>();
+        List<StagedEntry> pending = new ArrayList<>(batchSize);
+        try {
+            ArchiveEntry entry;
+            while ((entry = entries.getNextEntry()) != null) {
+                inspection.visitEntry(entry.getName());
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (isHidden(entry.getName()) || !entries.canReadEntryData(entry)) {
+                    skipped++;
+                    continue;
+                }
+                String[] segments = StringUtils.split(entry.getName(), '/');
+                Blob blob = stage(inspection.count(entries), segments[segments.length - 1]);
+                pending.add(new StagedEntry(Arrays.copyOf(segments, segments.length - 1), blob,
+                        executor.submit(() -> mediaAssetService.classify(blob))));
+                if (pending.size() >= batchSize) {
+                    createBatch(archive, folderPath, folders, pending);
+                    pending.clear();
+                }
+            }
+            createBatch(archive, folderPath, folders, pending);
+        } finally {
+            // the entries of a batch that was not created
+            pending.forEach(staged -> delete(staged.blob));
+        }
+    }
+
+    /**
+     * Copies an entry to a temporary blob, deleted if the copy fails.
+     */
+    protected Blob stage(InputStream stream, String filename) throws IOException {
+        File file = Framework.createTempFile("nxmediaasset-", ".tmp");
+        try {
+            Files.copy(stream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Blob blob = Blobs.createBlob(file);
+            blob.setFilename(filename);
+            return blob;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the documents of the classified entries in a transaction, then deletes the staged entries.
+     */
+    protected void createBatch(Blob archive, String folderPath, Set<String> folders, List<StagedEntry> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            List<StagedEntry> classified = new ArrayList<>(pending.size());
+            for (StagedEntry staged : pending) {
+                try {
+                    staged.classification = staged.future.get();
+                    classified.add(staged);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new NuxeoException(e);
+                } catch (ExecutionException e) {
+                    log.warn("Cannot classify the entry {} of {}", staged.blob.getFilename(), archive.getFilename(),
+                            e.getCause());
+                    skipped++;
+                }
+            }
+            TransactionHelper.runInTransaction(() -> {
+                for (StagedEntry staged : classified) {
+                    if (isAsset(staged.classification)) {
+                        createDocument(getFolder(folderPath, staged.directories, folders), staged.blob,
+                                staged.classification);
+                        imported++;
+                    } else {
+                        skipped++;
+                    }
+                }
+                session.save();
+            });
+        } finally {
+            pending.forEach(staged -> delete(staged.blob));
+        }
+        log.info("Archive {}: {} entries imported, {} skipped", archive.getFilename(), imported, skipped);
+    }
+
+    /**
+     * @return the path of the folder mirroring the directories of an entry, created if needed
+     */
+    protected String getFolder(String folderPath, String[] directories, Set<String> folders) {
+        String path = folderPath;
+        for (String name : directories) {
+            String parentPath = path;
+            path = parentPath + "/" + name;
+            if (folders.add(path) && !session.exists(new PathRef(path))) {
+                DocumentModel folder = session.createDocumentModel(parentPath, name, folderType);
+                folder.setPropertyValue("dc:title", name);
+                session.createDocument(folder);
+            }
+        }
+        return path;
+    }
+
+    protected void createDocument(String parentPath, Blob blob, MediaClassification classification) {
+        if (classification.getMimetype() != null) {
+            blob.setMimeType(classification.getMimetype());
+        }
+        DocumentModel doc = session.createDocumentModel(parentPath, blob.getFilename(), docType);
+        doc.setPropertyValue("dc:title", blob.getFilename());
+        doc.setPropertyValue("file:content", (Serializable) blob);
+        // the listener reuses the classification as long as file:content is not changed
+        doc.putContextData(MediaAssetService.CLASSIFICATION_CONTEXT_DATA, new BlobClassification(blob, classification));
+        session.createDocument(doc);
+    }
+
+    /**
+     * @return true if a media type matches the classification
+     */
+    protected boolean isAsset(MediaClassification classification) {
+        return classification.isSupported() && classification.getMediaType() != null;
+    }
+
+    /**
+     * @return true if the entry or one of its parent directories is hidden, including the macOS resource forks
+     */
+    protected boolean isHidden(String entryName) {
+        for (String segment : StringUtils.split(entryName, '/')) {
+            if (segment.startsWith(".") || "__MACOSX".equals(segment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected void delete(Blob blob) {
+        try {
+            File file = blob.getFile();
+            if (file != null) {
+                Files.deleteIfExists(file.toPath());
+            }
+        } catch (IOException e) {
+            log.debug("Cannot delete the staged entry {}: {}", blob.getFilename(), e.getMessage());
+        }
+    }
+
+    /**
+     * An entry copied to a temporary blob, being classified.
+     */
+    protected static class StagedEntry {
+
+        protected final String[] directories;
+
+        protected final Blob blob;
+
+        protected final Future<MediaClassification> future;
+
+        protected MediaClassification classification;
+
+        protected StagedEntry(String[] directories, Blob blob, Future<MediaClassification> future) {
+            this.directories = directories;
+            this.blob = blob;
+            this.future = future;
+        }
+
+    }
+
+}
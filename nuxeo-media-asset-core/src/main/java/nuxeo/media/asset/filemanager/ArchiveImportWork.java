@@ -0,0 +1,109 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.filemanager;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.transientstore.api.TransientStore;
+import org.nuxeo.ecm.core.work.AbstractWork;
+
+/**
+ * Imports the entries of an archive in the background, in the folder created for it by the {@link ArchiveAssetImporter}
+ * and as the user who imported the archive.
+ * <p>
+ * The work has no transaction of its own: the entries are committed by batches, so that the import of a large archive
+ * is not bound by the transaction timeout. The archive is removed from the transient store once the work is done,
+ * whether the import succeeded or not.
+ */
+public class ArchiveImportWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LogManager.getLogger(ArchiveImportWork.class);
+
+    public static final String CATEGORY = "mediaAssetArchiveImport";
+
+    protected final String folderId;
+
+    protected final String filename;
+
+    protected final String docType;
+
+    /**
+     * @param folderId the id of the folder receiving the entries, the key of the archive in the transient store
+     * @param filename the name of the archive
+     * @param docType the type of the documents created for the entries
+     */
+    public ArchiveImportWork(String repositoryName, String username, String folderId, String filename,
+            String docType) {
+        super(CATEGORY + ":" + folderId);
+        this.repositoryName = repositoryName;
+        setOriginatingUsername(username);
+        this.folderId = folderId;
+        this.filename = filename;
+        this.docType = docType;
+    }
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public String getTitle() {
+        return "Media asset archive import: " + filename;
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    @Override
+    public void work() {
+        TransientStore store = ArchiveAssetImporter.getTransientStore();
+        try {
+            List<Blob> blobs = store.getBlobs(folderId);
+            if (blobs == null || blobs.isEmpty()) {
+                log.warn("The archive {} to import in {} is no longer available", filename, folderId);
+                return;
+            }
+            openUserSession();
+            setStatus("Importing");
+            ArchiveAssetImporter importer = new ArchiveAssetImporter(session, docType);
+            importer.importEntries(blobs.get(0), new IdRef(folderId));
+            log.debug("Archive {} imported: {} entries imported, {} skipped", filename, importer.getImported(),
+                    importer.getSkipped());
+            setStatus("Done");
+        } catch (IOException e) {
+            // the folder is deleted, running the work again would fail the same way
+            log.warn("Cannot import the archive {}: {}", filename, e.getMessage());
+            setStatus("Failed");
+        } finally {
+            store.remove(folderId);
+        }
+    }
+
+}
@@ -21,29 +21,77 @@ package nuxeo.media.asset.filemanager;
 
 import java.io.IOException;
 
+import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.DocumentModel;
-import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.platform.filemanager.api.FileImporterContext;
 import org.nuxeo.ecm.platform.filemanager.service.extension.DefaultFileImporter;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.services.config.ConfigurationService;
 
+import nuxeo.media.asset.service.BlobClassification;
 import nuxeo.media.asset.service.MediaAssetService;
+import nuxeo.media.asset.service.MediaClassification;
 
 public class MediaAssetFileImporter extends DefaultFileImporter {
 
+    /**
+     * The classification of the blob being imported, handed over to the document in {@link #updateDocument}.
+     */
+    protected static final ThreadLocal<BlobClassification> PENDING_CLASSIFICATION = new ThreadLocal<>();
+
+    public static final String ARCHIVE_MODE_KEY = "nuxeo.media.asset.importer.archive.mode";
+
+    /**
+     * An archive is imported as a single asset, supported if it holds a supported entry.
+     */
+    public static final String ARCHIVE_MODE_ASSET = "asset";
+
+    /**
+     * The entries of an archive that is not a compound asset are imported as separate assets, in the background once
+     * the folder of the archive is committed.
+     */
+    public static final String ARCHIVE_MODE_EXPLODE = "explode";
+
     @Override
     public DocumentModel createOrUpdate(FileImporterContext context) throws IOException {
-        // check if the parent document accepts the Asset type
-        try {
-            MediaAssetService mediaAssetService = Framework.getService(MediaAssetService.class);
-            if (mediaAssetService.isBlobSupported(context.getBlob())) {
-                checkAllowedSubtypes(context.getSession(), context.getParentPath(), getDocType());
-                return super.createOrUpdate(context);
-            } else {
-                return null;
-            }
-        } catch (NuxeoException e) {
+        MediaAssetService mediaAssetService = Framework.getService(MediaAssetService.class);
+        // check if the parent document accepts the Asset type, once per container
+        if (!mediaAssetService.isAllowedSubtype(context.getSession(), context.getParentPath(), getDocType())) {
             return null;
         }
+        Blob blob = context.getBlob();
+        MediaClassification classification = mediaAssetService.classify(blob);
+        if (!classification.isSupported()) {
+            return isExploded(classification)
+                    ? new ArchiveAssetImporter(context.getSession(), getDocType()).importArchive(blob,
+                            context.getParentPath())
+                    : null;
+        }
+        PENDING_CLASSIFICATION.set(new BlobClassification(blob, classification));
+        try {
+            return super.createOrUpdate(context);
+        } finally {
+            PENDING_CLASSIFICATION.remove();
+        }
+    }
+
+    /**
+     * @return true if the entries of an archive that is not a compound asset are imported as separate assets
+     */
+    protected boolean isExploded(MediaClassification classification) {
+        ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
+        return ARCHIVE_MODE_EXPLODE.equals(configurationService.getString(ARCHIVE_MODE_KEY, ARCHIVE_MODE_ASSET))
+                && MediaClassification.SOURCE_ARCHIVE.equals(classification.getSource())
+                && !classification.isInconclusive();
+    }
+
+    @Override
+    protected void updateDocument(DocumentModel doc, Blob content) {
+        super.updateDocument(doc, content);
+        // the listener reuses the classification as long as file:content is not changed
+        BlobClassification classification = PENDING_CLASSIFICATION.get();
+        if (classification != null && classification.isValidFor(content)) {
+            doc.putContextData(MediaAssetService.CLASSIFICATION_CONTEXT_DATA, classification);
+        }
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.ingest;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.nuxeo.runtime.kv.KeyValueStore;
+
+/**
+ * The last file of an ingestion whose document is committed, kept in a key/value store so that an interrupted
+ * ingestion resumes after it.
+ * <p>
+ * The files are walked in the order of {@link #compare(Path, Path)}, the ones up to the checkpoint are not walked
+ * again.
+ */
+public class IngestCheckpoint {
+
+    public static final String KEY_PREFIX = "mediaasset:ingest:";
+
+    protected final KeyValueStore store;
+
+    protected final String key;
+
+    public IngestCheckpoint(KeyValueStore store, String jobId) {
+        this.store = store;
+        this.key = KEY_PREFIX + jobId;
+    }
+
+    /**
+     * @return the path of the last committed file relative to the ingested directory, null if none
+     */
+    public Path get() {
+        String value = store.getString(key);
+        return value != null ? Paths.get(value) : null;
+    }
+
+    public void set(Path relativePath) {
+        store.put(key, relativePath.toString());
+    }
+
+    /**
+     * Compares relative paths name by name, the order of a depth-first walk listing each directory by name.
+     */
+    public static int compare(Path a, Path b) {
+        int count = Math.min(a.getNameCount(), b.getNameCount());
+        for (int i = 0; i < count; i++) {
+            int result = a.getName(i).toString().compareTo(b.getName(i).toString());
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(a.getNameCount(), b.getNameCount());
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.ingest;
+
+import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Schedules the ingestion of a directory of the server into the input folder, see {@link IngestWork}. Restricted to
+ * administrators.
+ */
+@Operation(id = IngestDirectoryOperation.ID, category = Constants.CAT_DOCUMENT, label = "Ingest a directory",
+        description = "Schedules the creation of a document for each file of a server directory tree in the input "
+                + "folder, classified by the media asset service. A job run again with the same id resumes after its "
+                + "last batch.")
+public class IngestDirectoryOperation {
+
+    public static final String ID = "MediaAsset.IngestDirectory";
+
+    @Context
+    protected CoreSession session;
+
+    @Param(name = "directory", description = "The absolute path of the directory on the server")
+    protected String directory;
+
+    @Param(name = "jobId", required = false, description = "The id of the job, the directory and folder by default")
+    protected String jobId;
+
+    @OperationMethod
+    public DocumentModel run(DocumentModel folder) {
+        if (!session.getPrincipal().isAdministrator()) {
+            throw new NuxeoException("Only administrators can ingest a directory", SC_FORBIDDEN);
+        }
+        Path root = Paths.get(directory).toAbsolutePath().normalize();
+        String id = jobId != null ? jobId : root + ":" + folder.getRepositoryName() + ":" + folder.getId();
+        // the ingestion runs in the background, in its own transactions
+        IngestWork work = new IngestWork(folder.getRepositoryName(), session.getPrincipal().getName(), root.toString(),
+                folder.getPathAsString(), id);
+        Framework.getService(WorkManager.class).schedule(work, WorkManager.Scheduling.IF_NOT_SCHEDULED, true);
+        return folder;
+    }
+
+}
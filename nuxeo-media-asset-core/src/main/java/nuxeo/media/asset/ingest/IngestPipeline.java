@@ -0,0 +1,379 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.ingest;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.services.config.ConfigurationService;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import nuxeo.media.asset.service.BlobClassification;
+import nuxeo.media.asset.service.MediaAssetService;
+import nuxeo.media.asset.service.MediaClassification;
+
+/**
+ * Ingests a local directory tree into a folder of the repository, as a pipeline of three stages:
+ * <ul>
+ * <li>a walker listing the files, each directory by name,</li>
+ * <li>a pool of classifiers reading the header of the files, and the content of the archives,</li>
+ * <li>a writer creating the documents, with their media facets, by batches of one transaction each.</li>
+ * </ul>
+ * Each stage runs on its own threads. The classifications are handed over to the writer in the walk order through a
+ * bounded queue, the walker waiting when the writer is behind. After each batch the last file written is stored as
+ * the checkpoint of the job: a job run again with the same id resumes after it. Hidden files and directories, and
+ * symbolic links, are ignored.
+ */
+public class IngestPipeline {
+
+    private static final Logger log = LogManager.getLogger(IngestPipeline.class);
+
+    public static final String THREADS_KEY = "nuxeo.media.asset.ingest.threads";
+
+    public static final String QUEUE_SIZE_KEY = "nuxeo.media.asset.ingest.queueSize";
+
+    public static final String BATCH_SIZE_KEY = "nuxeo.media.asset.ingest.batchSize";
+
+    public static final String DOC_TYPE_KEY = "nuxeo.media.asset.ingest.docType";
+
+    public static final String FOLDER_TYPE_KEY = "nuxeo.media.asset.ingest.folderType";
+
+    public static final String CHECKPOINT_STORE_KEY = "nuxeo.media.asset.ingest.checkpoint.store";
+
+    public static final int DEFAULT_THREADS = 4;
+
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    public static final String DEFAULT_DOC_TYPE = "File";
+
+    public static final String DEFAULT_FOLDER_TYPE = "Folder";
+
+    public static final String DEFAULT_CHECKPOINT_STORE = "default";
+
+    /**
+     * Marks the end of the walk in the queue of the writer.
+     */
+    protected static final IngestItem END = new IngestItem(null, null, null);
+
+    protected final String repositoryName;
+
+    protected final NuxeoPrincipal principal;
+
+    protected final Path root;
+
+    protected final String targetPath;
+
+    protected final IngestCheckpoint checkpoint;
+
+    protected final int threads;
+
+    protected final int queueSize;
+
+    protected final int batchSize;
+
+    protected final String docType;
+
+    protected final String folderType;
+
+    protected final IngestProgress progress = new IngestProgress();
+
+    /**
+     * @param session the session of the user creating the documents
+     * @param root the directory to ingest
+     * @param targetPath the path of the folder receiving the documents
+     * @param jobId the id of the job, its checkpoint is shared by the runs with the same id
+     */
+    public IngestPipeline(CoreSession session, Path root, String targetPath, String jobId) {
+        ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
+        this.repositoryName = session.getRepositoryName();
+        this.principal = session.getPrincipal();
+        this.root = root;
+        this.targetPath = targetPath;
+        this.threads = Math.max(1, configurationService.getInteger(THREADS_KEY, DEFAULT_THREADS));
+        this.queueSize = Math.max(1, configurationService.getInteger(QUEUE_SIZE_KEY, DEFAULT_QUEUE_SIZE));
+        this.batchSize = Math.max(1, configurationService.getInteger(BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE));
+        this.docType = configurationService.getString(DOC_TYPE_KEY, DEFAULT_DOC_TYPE);
+        this.folderType = configurationService.getString(FOLDER_TYPE_KEY, DEFAULT_FOLDER_TYPE);
+        String storeName = configurationService.getString(CHECKPOINT_STORE_KEY, DEFAULT_CHECKPOINT_STORE);
+        this.checkpoint = new IngestCheckpoint(Framework.getService(KeyValueService.class).getKeyValueStore(storeName),
+                jobId);
+    }
+
+    public IngestProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Runs the ingestion until all the files are written. The documents are created in their own transactions.
+     *
+     * @return the progress of the ingestion
+     */
+    public IngestProgress run() {
+        if (!Files.isDirectory(root)) {
+            throw new NuxeoException("Not a directory: " + root);
+        }
+        Path resumeAfter = checkpoint.get();
+        if (resumeAfter != null) {
+            log.info("Resuming the ingestion of {} after {}", root, resumeAfter);
+        }
+        BlockingQueue<CompletableFuture<IngestItem>> classified = new ArrayBlockingQueue<>(queueSize);
+        // at most queueSize classifications wait for the writer, one is taken by the writer and one is being handed
+        // over by the walker: the classifiers never reject a file
+        ExecutorService classifiers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize + 2), newThreadFactory("media-asset-ingest-classifier-%d"));
+        ExecutorService walker = Executors.newSingleThreadExecutor(newThreadFactory("media-asset-ingest-walker-%d"));
+        ExecutorService writer = Executors.newSingleThreadExecutor(newThreadFactory("media-asset-ingest-writer-%d"));
+        try {
+            walker.execute(() -> walk(resumeAfter, classifiers, classified));
+            Future<?> written = writer.submit(() -> write(resumeAfter != null, classified));
+            written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException(e);
+        } catch (ExecutionException e) {
+            throw new NuxeoException("Ingestion of " + root + " interrupted, " + progress, e.getCause());
+        } finally {
+            walker.shutdownNow();
+            classifiers.shutdownNow();
+            writer.shutdownNow();
+        }
+        log.info("Ingestion of {} done: {}", root, progress);
+        return progress;
+    }
+
+    protected ThreadFactory newThreadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
+    /**
+     * Walks the directory from the checkpoint, the classification of each file is queued for the writer in the walk
+     * order.
+     */
+    protected void walk(Path resumeAfter, ExecutorService classifiers,
+            BlockingQueue<CompletableFuture<IngestItem>> classified) {
+        CompletableFuture<IngestItem> end = CompletableFuture.completedFuture(END);
+        try {
+            walk(root, resumeAfter, classifiers, classified);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            end = CompletableFuture.failedFuture(e);
+        } catch (IOException | RuntimeException e) {
+            end = CompletableFuture.failedFuture(e);
+        } finally {
+            // the writer always gets the end of the walk, or its failure
+            try {
+                classified.put(end);
+            } catch (InterruptedException e) {
+                // the pipeline is shut down, the writer is interrupted as well
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    protected void walk(Path directory, Path resumeAfter, ExecutorService classifiers,
+            BlockingQueue<CompletableFuture<IngestItem>> classified) throws IOException, InterruptedException {
+        List<Path> children;
+        try (Stream<Path> stream = Files.list(directory)) {
+            children = stream.sorted(Comparator.comparing(path -> path.getFileName().toString()))
+                             .collect(Collectors.toList());
+        }
+        for (Path child : children) {
+            Path relative = root.relativize(child);
+            if (isHidden(child) || isWritten(relative, resumeAfter)) {
+                continue;
+            }
+            // symbolic links are not followed, they could loop
+            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                walk(child, resumeAfter, classifiers, classified);
+            } else if (Files.isRegularFile(child, LinkOption.NOFOLLOW_LINKS)) {
+                progress.walked.incrementAndGet();
+                classified.put(CompletableFuture.supplyAsync(() -> classify(relative, child), classifiers));
+            }
+        }
+    }
+
+    /**
+     * @return true if the file, or all the files of the directory, are up to the checkpoint
+     */
+    protected boolean isWritten(Path relative, Path resumeAfter) {
+        if (resumeAfter == null || IngestCheckpoint.compare(relative, resumeAfter) > 0) {
+            return false;
+        }
+        // the directories holding the checkpoint are walked again
+        return relative.equals(resumeAfter) || !resumeAfter.startsWith(relative);
+    }
+
+    protected IngestItem classify(Path relative, Path file) {
+        Blob blob;
+        try {
+            blob = Blobs.createBlob(file.toFile());
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot read " + file, e);
+        }
+        blob.setFilename(file.getFileName().toString());
+        MediaClassification classification;
+        try {
+            classification = Framework.getService(MediaAssetService.class).classify(blob);
+            progress.classified.incrementAndGet();
+        } catch (RuntimeException e) {
+            // the document is still created, without media facets
+            log.warn("Cannot classify {}", file, e);
+            progress.failed.incrementAndGet();
+            classification = MediaClassification.NONE;
+        }
+        if (classification.getMimetype() != null) {
+            blob.setMimeType(classification.getMimetype());
+        }
+        return new IngestItem(relative, new BlobClassification(blob, classification), blob);
+    }
+
+    /**
+     * Creates the documents by batches in the walk order, then moves the checkpoint to the last one.
+     *
+     * @param resumed true if the documents of the first batch may have been committed without moving the checkpoint
+     */
+    protected void write(boolean resumed, BlockingQueue<CompletableFuture<IngestItem>> classified) {
+        CoreSession session = CoreInstance.getCoreSession(repositoryName, principal);
+        Set<String> folders = new HashSet<>();
+        List<IngestItem> batch = new ArrayList<>(batchSize);
+        try {
+            boolean checkExisting = resumed;
+            boolean done = false;
+            while (!done) {
+                IngestItem item = classified.take().join();
+                done = item == END;
+                if (!done) {
+                    batch.add(item);
+                }
+                if (!batch.isEmpty() && (done || batch.size() >= batchSize)) {
+                    boolean check = checkExisting;
+                    TransactionHelper.runInTransaction(() -> writeBatch(session, batch, folders, check));
+                    checkpoint.set(batch.get(batch.size() - 1).relative);
+                    log.info("Ingestion of {}: {}", root, progress);
+                    batch.clear();
+                    checkExisting = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException(e);
+        } catch (CompletionException e) {
+            throw new NuxeoException("Cannot ingest " + root, e.getCause());
+        }
+    }
+
+    protected void writeBatch(CoreSession session, List<IngestItem> batch, Set<String> folders,
+            boolean checkExisting) {
+        for (IngestItem item : batch) {
+            String parentPath = getFolder(session, item.relative.getParent(), folders);
+            String name = item.relative.getFileName().toString();
+            if (checkExisting && session.exists(new PathRef(parentPath + "/" + name))) {
+                progress.skipped.incrementAndGet();
+                continue;
+            }
+            DocumentModel doc = session.createDocumentModel(parentPath, name, docType);
+            doc.setPropertyValue("dc:title", name);
+            doc.setPropertyValue("file:content", (Serializable) item.blob);
+            // the listener reuses the classification as long as file:content is not changed
+            doc.putContextData(MediaAssetService.CLASSIFICATION_CONTEXT_DATA, item.classification);
+            session.createDocument(doc);
+            progress.created.incrementAndGet();
+        }
+        session.save();
+    }
+
+    /**
+     * @return the path of the folder mirroring a directory, created if needed
+     */
+    protected String getFolder(CoreSession session, Path relativeDirectory, Set<String> folders) {
+        String path = targetPath;
+        if (relativeDirectory == null) {
+            return path;
+        }
+        for (Path name : relativeDirectory) {
+            String parentPath = path;
+            path = parentPath + "/" + name;
+            if (folders.add(path) && !session.exists(new PathRef(path))) {
+                DocumentModel folder = session.createDocumentModel(parentPath, name.toString(), folderType);
+                folder.setPropertyValue("dc:title", name.toString());
+                session.createDocument(folder);
+            }
+        }
+        return path;
+    }
+
+    protected boolean isHidden(Path path) {
+        return path.getFileName().toString().startsWith(".");
+    }
+
+    protected static class IngestItem {
+
+        protected final Path relative;
+
+        protected final BlobClassification classification;
+
+        protected final Blob blob;
+
+        protected IngestItem(Path relative, BlobClassification classification, Blob blob) {
+            this.relative = relative;
+            this.classification = classification;
+            this.blob = blob;
+        }
+
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.ingest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of an ingestion, updated by the stages of the pipeline while it runs.
+ */
+public class IngestProgress {
+
+    protected final AtomicLong walked = new AtomicLong();
+
+    protected final AtomicLong classified = new AtomicLong();
+
+    protected final AtomicLong created = new AtomicLong();
+
+    protected final AtomicLong skipped = new AtomicLong();
+
+    protected final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @return the number of files found by the walker, the files before the checkpoint excluded
+     */
+    public long getWalked() {
+        return walked.get();
+    }
+
+    /**
+     * @return the number of files classified
+     */
+    public long getClassified() {
+        return classified.get();
+    }
+
+    /**
+     * @return the number of documents created
+     */
+    public long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * @return the number of files skipped because their document already exists
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the number of files that could not be classified
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "walked=" + walked + ", classified=" + classified + ", created=" + created + ", skipped=" + skipped
+                + ", failed=" + failed;
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.ingest;
+
+import java.nio.file.Paths;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.work.AbstractWork;
+
+/**
+ * Runs an {@link IngestPipeline} in the background, as the user who scheduled it.
+ * <p>
+ * The work has no transaction of its own: the pipeline commits the documents by batches, so that the ingestion of a
+ * large directory is not bound by the transaction timeout.
+ */
+public class IngestWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LogManager.getLogger(IngestWork.class);
+
+    public static final String CATEGORY = "mediaAssetIngest";
+
+    protected final String directory;
+
+    protected final String targetPath;
+
+    protected final String jobId;
+
+    /**
+     * @param directory the absolute path of the directory to ingest
+     * @param targetPath the path of the folder receiving the documents
+     * @param jobId the id of the job, a job is not scheduled twice
+     */
+    public IngestWork(String repositoryName, String username, String directory, String targetPath, String jobId) {
+        super(CATEGORY + ":" + jobId);
+        this.repositoryName = repositoryName;
+        setOriginatingUsername(username);
+        this.directory = directory;
+        this.targetPath = targetPath;
+        this.jobId = jobId;
+    }
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public String getTitle() {
+        return "Media asset ingestion: " + directory;
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    @Override
+    public void work() {
+        openUserSession();
+        IngestPipeline pipeline = new IngestPipeline(session, Paths.get(directory), targetPath, jobId);
+        setStatus("Ingesting");
+        IngestProgress progress = pipeline.run();
+        log.debug("Ingestion job {} done: {}", jobId, progress);
+        setStatus("Done");
+    }
+
+}
@@ -21,20 +21,57 @@ package nuxeo.media.asset.listener;
 
 import static org.nuxeo.ecm.core.api.event.DocumentEventTypes.ABOUT_TO_CREATE;
 import static org.nuxeo.ecm.core.api.event.DocumentEventTypes.ABOUT_TO_IMPORT;
+import static org.nuxeo.ecm.core.api.event.DocumentEventTypes.ABOUT_TO_MOVE;
 import static org.nuxeo.ecm.core.api.event.DocumentEventTypes.BEFORE_DOC_UPDATE;
+import static org.nuxeo.ecm.core.api.event.DocumentEventTypes.DOCUMENT_CREATED;
+import static org.nuxeo.ecm.core.api.event.DocumentEventTypes.DOCUMENT_REMOVED;
 
+import java.io.Serializable;
+import java.util.Objects;
+
+import org.nuxeo.ecm.automation.server.jaxrs.batch.BatchManager;
+import org.nuxeo.ecm.automation.server.jaxrs.batch.handler.BatchHandler;
+import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.event.CoreEventConstants;
 import org.nuxeo.ecm.core.api.model.Property;
 import org.nuxeo.ecm.core.event.Event;
 import org.nuxeo.ecm.core.event.EventContext;
 import org.nuxeo.ecm.core.event.EventListener;
 import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.ecm.core.work.api.WorkManager;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.services.config.ConfigurationService;
+
+import io.dropwizard.metrics5.Timer;
 
+import nuxeo.media.asset.batch.MediaAssetBatchHandler;
+import nuxeo.media.asset.metrics.MediaAssetMetrics;
+import nuxeo.media.asset.service.BlobClassification;
 import nuxeo.media.asset.service.MediaAssetService;
+import nuxeo.media.asset.service.MediaClassification;
+import nuxeo.media.asset.work.MediaClassificationWork;
 
 public class MediaAssetListener implements EventListener {
 
+    protected static final String FILE_SCHEMA = "file";
+
+    protected static final String FILE_CONTENT = "file:content";
+
+    public static final String ASYNC_THRESHOLD_KEY = "nuxeo.media.asset.listener.async.threshold";
+
+    /**
+     * Context data disabling the dublincore listener, same value as DublinCoreListener.DISABLE_DUBLINCORE_LISTENER.
+     */
+    public static final String DISABLE_DUBLINCORE_LISTENER = "disableDublinCoreListener";
+
+    /**
+     * Context data disabling the audit logger, same value as NXAuditEventsService.DISABLE_AUDIT_LOGGER.
+     */
+    public static final String DISABLE_AUDIT_LOGGER = "disableAuditLogger";
+
+    protected final MediaAssetMetrics metrics = new MediaAssetMetrics();
+
     @Override
     public void handleEvent(Event event) {
         EventContext ctx = event.getContext();
@@ -42,24 +79,156 @@ public class MediaAssetListener implements EventListener {
             return;
         }
 
-        DocumentEventContext docCtx = (DocumentEventContext) ctx;
-        DocumentModel doc = docCtx.getSourceDocument();
+        try (Timer.Context timer = metrics.getListenerTimer(event.getName()).time()) {
+            DocumentEventContext docCtx = (DocumentEventContext) ctx;
+            if (DOCUMENT_CREATED.equals(event.getName())) {
+                scheduleDeferredClassification(docCtx);
+            } else if (DOCUMENT_REMOVED.equals(event.getName()) || ABOUT_TO_MOVE.equals(event.getName())) {
+                invalidateContainer(docCtx.getSourceDocument());
+            } else if (needsUpdate(event.getName(), docCtx)) {
+                updateDocument(docCtx.getSourceDocument());
+            }
+        }
+    }
 
-        MediaAssetService mediaAssetService = Framework.getService(MediaAssetService.class);
+    /**
+     * The containers are resolved once from their path to check the allowed subtypes, a removed or moved container
+     * must be resolved again.
+     */
+    protected void invalidateContainer(DocumentModel doc) {
+        if (doc != null && doc.isFolder()) {
+            Framework.getService(MediaAssetService.class).invalidateContainer(doc);
+        }
+    }
 
+    protected void updateDocument(DocumentModel doc) {
+        MediaAssetService mediaAssetService = Framework.getService(MediaAssetService.class);
         if (!mediaAssetService.isDocumentSupported(doc)) {
             return;
         }
-
-        if (ABOUT_TO_CREATE.equals(event.getName()) || ABOUT_TO_IMPORT.equals(event.getName())) {
-            mediaAssetService.updateDocumentMediaFacet(doc);
-        } else if (BEFORE_DOC_UPDATE.equals(event.getName())) {
-            Property contentProperty = doc.getProperty("file:content");
-            if (!contentProperty.isDirty()) {
-                return;
+        Blob blob = (Blob) doc.getPropertyValue(FILE_CONTENT);
+        Serializable contextData = doc.getContextData(MediaAssetService.CLASSIFICATION_CONTEXT_DATA);
+        boolean classified = contextData instanceof BlobClassification
+                && ((BlobClassification) contextData).isValidFor(blob);
+        if (!classified) {
+            // classified when uploaded through a batch
+            MediaClassification uploaded = getUploadClassification(blob);
+            if (uploaded != null) {
+                doc.putContextData(MediaAssetService.CLASSIFICATION_CONTEXT_DATA,
+                        new BlobClassification(blob, uploaded));
+                classified = true;
             }
+        }
+        if (classified || !isLarge(blob)) {
             mediaAssetService.updateDocumentMediaFacet(doc);
+            return;
+        }
+        // already classified for another document
+        MediaClassification cached = mediaAssetService.getCachedClassification(blob);
+        if (cached != null) {
+            mediaAssetService.updateDocumentMediaFacet(doc, cached);
+            return;
+        }
+        // large content: guess from the filename now, read the content after commit
+        mediaAssetService.updateDocumentMediaFacet(doc, mediaAssetService.classifyFromFilename(blob));
+        // documents being created have no id yet, they are scheduled on documentCreated
+        if (doc.getId() != null) {
+            schedule(doc, blob);
+        }
+    }
+
+    /**
+     * @return the classification stored by the {@value MediaAssetBatchHandler#NAME} batch handler when the blob was
+     *         uploaded, null if none
+     */
+    protected MediaClassification getUploadClassification(Blob blob) {
+        if (blob == null || blob.getDigest() == null) {
+            return null;
+        }
+        BatchHandler handler = Framework.getService(BatchManager.class).getHandler(MediaAssetBatchHandler.NAME);
+        return handler instanceof MediaAssetBatchHandler ? ((MediaAssetBatchHandler) handler).getClassification(blob)
+                : null;
+    }
+
+    /**
+     * Schedules the classification of a created document whose content was too large to be classified in
+     * aboutToCreate.
+     */
+    protected void scheduleDeferredClassification(DocumentEventContext docCtx) {
+        DocumentModel doc = docCtx.getSourceDocument();
+        if (doc == null || !doc.hasSchema(FILE_SCHEMA)) {
+            return;
+        }
+        Blob blob = (Blob) doc.getPropertyValue(FILE_CONTENT);
+        // classified by an importer, the blob was stored since so its digest cannot be compared
+        boolean classified = docCtx.getProperty(MediaAssetService.CLASSIFICATION_CONTEXT_DATA) != null
+                || doc.getContextData(MediaAssetService.CLASSIFICATION_CONTEXT_DATA) != null;
+        if (classified || !isLarge(blob)) {
+            return;
+        }
+        MediaAssetService mediaAssetService = Framework.getService(MediaAssetService.class);
+        if (mediaAssetService.getCachedClassification(blob) == null && mediaAssetService.isDocumentSupported(doc)) {
+            schedule(doc, blob);
+        }
+    }
+
+    /**
+     * @return true if the blob is larger than the configured threshold, above which it is classified asynchronously
+     */
+    protected boolean isLarge(Blob blob) {
+        if (blob == null) {
+            return false;
+        }
+        ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
+        long threshold = configurationService.getLong(ASYNC_THRESHOLD_KEY, -1);
+        return threshold >= 0 && blob.getLength() > threshold;
+    }
+
+    /**
+     * Schedules the classification of the document content, replacing the one still queued for a previous content:
+     * that work would skip the document, its content having changed.
+     */
+    protected void schedule(DocumentModel doc, Blob blob) {
+        WorkManager workManager = Framework.getService(WorkManager.class);
+        workManager.schedule(new MediaClassificationWork(doc.getRepositoryName(), doc.getId(), blob),
+                WorkManager.Scheduling.CANCEL_SCHEDULED, true);
+    }
+
+    /**
+     * Cheap checks done before the document filter: the content of a created document must be classified, the one of
+     * an updated document only if its bytes or its filename changed.
+     */
+    protected boolean needsUpdate(String eventName, DocumentEventContext docCtx) {
+        DocumentModel doc = docCtx.getSourceDocument();
+        if (doc == null || !doc.hasSchema(FILE_SCHEMA)) {
+            return false;
+        }
+        if (ABOUT_TO_CREATE.equals(eventName) || ABOUT_TO_IMPORT.equals(eventName)) {
+            return true;
+        } else if (!BEFORE_DOC_UPDATE.equals(eventName)) {
+            return false;
+        }
+        Property contentProperty = doc.getProperty(FILE_CONTENT);
+        if (!contentProperty.isDirty()) {
+            return false;
+        }
+        Object previous = docCtx.getProperty(CoreEventConstants.PREVIOUS_DOCUMENT_MODEL);
+        if (previous instanceof DocumentModel) {
+            Blob previousBlob = (Blob) ((DocumentModel) previous).getPropertyValue(FILE_CONTENT);
+            return !isSameContent(previousBlob, (Blob) contentProperty.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * @return true if both blobs are null, or have the same digest and filename
+     */
+    protected boolean isSameContent(Blob previous, Blob current) {
+        if (previous == null || current == null) {
+            return previous == current;
         }
+        return previous.getDigest() != null && previous.getDigest().equals(current.getDigest())
+                && Objects.equals(previous.getFilename(), current.getFilename());
     }
 
 }
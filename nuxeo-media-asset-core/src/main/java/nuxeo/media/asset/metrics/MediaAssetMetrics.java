@@ -0,0 +1,146 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import io.dropwizard.metrics5.Counter;
+import io.dropwizard.metrics5.MetricName;
+import io.dropwizard.metrics5.MetricRegistry;
+import io.dropwizard.metrics5.SharedMetricRegistries;
+import io.dropwizard.metrics5.Timer;
+
+/**
+ * The metrics of the media asset classification, registered in the Nuxeo metrics registry so that they are published
+ * by the configured reporters.
+ */
+public class MediaAssetMetrics {
+
+    public static final String NO_MATCH = "none";
+
+    protected static final MetricName PREFIX = MetricName.build("nuxeo", "media", "asset");
+
+    protected final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    protected final Timer filterTimer = registry.timer(PREFIX.resolve("filter"));
+
+    protected final Timer mimetypeTimer = registry.timer(PREFIX.resolve("mimetype"));
+
+    protected final Timer zipTimer = registry.timer(PREFIX.resolve("zip"));
+
+    protected final Counter zipEntries = registry.counter(PREFIX.resolve("zip.entries"));
+
+    protected final Counter zipBytes = registry.counter(PREFIX.resolve("zip.bytes"));
+
+    protected final Timer facetUpdateTimer = registry.timer(PREFIX.resolve("facets.update"));
+
+    protected final Counter sharedCacheHits = registry.counter(PREFIX.resolve("cache.shared.hits"));
+
+    protected final Counter sharedCacheMisses = registry.counter(PREFIX.resolve("cache.shared.misses"));
+
+    protected final Map<String, Counter> matches = new ConcurrentHashMap<>();
+
+    protected final Map<String, Counter> detections = new ConcurrentHashMap<>();
+
+    protected final Map<String, Counter> inconclusiveScans = new ConcurrentHashMap<>();
+
+    protected final Map<String, Timer> listenerTimers = new ConcurrentHashMap<>();
+
+    /**
+     * @return the duration of the document filter evaluation
+     */
+    public Timer getFilterTimer() {
+        return filterTimer;
+    }
+
+    /**
+     * @return the duration of the blob mimetype resolution, archive content excluded
+     */
+    public Timer getMimetypeTimer() {
+        return mimetypeTimer;
+    }
+
+    /**
+     * @return the duration of the archive content detection, whatever the archive format
+     */
+    public Timer getZipTimer() {
+        return zipTimer;
+    }
+
+    /**
+     * @return the duration of the facet update of a document, classification included
+     */
+    public Timer getFacetUpdateTimer() {
+        return facetUpdateTimer;
+    }
+
+    /**
+     * @param entries the number of archive entries looked at, nested archives included
+     * @param bytes the number of bytes read from the archive, decompressed bytes included
+     */
+    public void zipScanned(long entries, long bytes) {
+        zipEntries.inc(entries);
+        zipBytes.inc(bytes);
+    }
+
+    /**
+     * @param hit true if the classification was found in the cache shared by the cluster
+     */
+    public void sharedCacheLookup(boolean hit) {
+        (hit ? sharedCacheHits : sharedCacheMisses).inc();
+    }
+
+    /**
+     * @param reason the exceeded limit or why the archive could not be read
+     */
+    public void zipInconclusive(String reason) {
+        inconclusiveScans.computeIfAbsent(reason,
+                k -> registry.counter(PREFIX.resolve("zip.inconclusive").tagged("reason", k))).inc();
+    }
+
+    /**
+     * @param mediaType the name of the matching media type, null if none
+     */
+    public void matched(String mediaType) {
+        String tag = mediaType != null ? mediaType : NO_MATCH;
+        matches.computeIfAbsent(tag, k -> registry.counter(PREFIX.resolve("match").tagged("mediatype", k))).inc();
+    }
+
+    /**
+     * @param source the source of the detected mimetype, null if no detector was confident
+     */
+    public void detected(String source) {
+        String tag = source != null ? source : NO_MATCH;
+        detections.computeIfAbsent(tag, k -> registry.counter(PREFIX.resolve("detection").tagged("source", k))).inc();
+    }
+
+    /**
+     * @param event the event handled by the listener
+     * @return the duration of the listener for this event
+     */
+    public Timer getListenerTimer(String event) {
+        return listenerTimers.computeIfAbsent(event,
+                k -> registry.timer(PREFIX.resolve("listener").tagged("event", k)));
+    }
+
+}
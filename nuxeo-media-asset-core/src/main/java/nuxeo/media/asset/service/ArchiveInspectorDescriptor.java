@@ -0,0 +1,71 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.service;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeList;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+import nuxeo.media.asset.archive.ArchiveInspector;
+
+@XObject("archiveInspector")
+public class ArchiveInspectorDescriptor implements Serializable {
+
+    public static final List<String> DEFAULT_MIMETYPES = new ArrayList<>();
+
+    private static final long serialVersionUID = 1L;
+
+    @XNode("@name")
+    protected String name;
+
+    @XNode("@class")
+    protected Class<? extends ArchiveInspector> klass;
+
+    @XNodeList(value = "mimetype", type = ArrayList.class, componentType = String.class)
+    protected List<String> mimetypes = DEFAULT_MIMETYPES;
+
+    @XNode("@enabled")
+    boolean enabled = true;
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getMimetypes() {
+        return mimetypes;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public ArchiveInspector newInstance() {
+        try {
+            return klass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new NuxeoException("Cannot instantiate archive inspector " + name, e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.service;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * A classification along with the identity of the blob it was computed for, carried in the document context data so
+ * that the classification done by an importer is not computed again by the listener.
+ */
+public class BlobClassification implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final String digest;
+
+    protected final String filename;
+
+    protected final long length;
+
+    protected final MediaClassification classification;
+
+    public BlobClassification(Blob blob, MediaClassification classification) {
+        this.digest = blob.getDigest();
+        this.filename = blob.getFilename();
+        this.length = blob.getLength();
+        this.classification = classification;
+    }
+
+    public MediaClassification getClassification() {
+        return classification;
+    }
+
+    /**
+     * @param blob a blob
+     * @return true if the classification was computed for a blob with the same digest, filename and length
+     */
+    public boolean isValidFor(Blob blob) {
+        return blob != null && Objects.equals(digest, blob.getDigest()) && Objects.equals(filename, blob.getFilename())
+                && length == blob.getLength();
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.actions.ActionContext;
+import org.nuxeo.ecm.platform.actions.ActionFilter;
+import org.nuxeo.ecm.platform.actions.DefaultActionFilter;
+import org.nuxeo.ecm.platform.actions.ELActionContext;
+import org.nuxeo.ecm.platform.actions.FilterRule;
+import org.nuxeo.ecm.platform.actions.ejb.ActionManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * The filter selecting the documents handled by the service.
+ * <p>
+ * Filters whose rules only check document types, facets and schemas are evaluated without the {@link ActionManager}
+ * and their result is cached by document type and facets. Other filters (permissions, groups, EL conditions) are
+ * evaluated by the {@link ActionManager} for each document.
+ */
+public class DocumentFilter {
+
+    protected static final int MAX_CACHE_SIZE = 1000;
+
+    protected final String filterId;
+
+    /**
+     * The compiled rules, null if the filter must be evaluated by the {@link ActionManager}.
+     */
+    protected final List<Rule> rules;
+
+    protected final boolean dependsOnFacets;
+
+    protected final Map<Object, Boolean> cache = new ConcurrentHashMap<>();
+
+    protected DocumentFilter(String filterId, List<Rule> rules) {
+        this.filterId = filterId;
+        this.rules = rules;
+        this.dependsOnFacets = rules != null && rules.stream().anyMatch(Rule::dependsOnFacets);
+    }
+
+    /**
+     * @param filterId the id of an action filter, null to reject all documents
+     */
+    public static DocumentFilter of(String filterId) {
+        if (filterId == null) {
+            return new DocumentFilter(null, Collections.emptyList());
+        }
+        ActionFilter filter = Framework.getService(ActionManager.class).getFilter(filterId);
+        if (filter == null || filter.getClass() != DefaultActionFilter.class) {
+            return new DocumentFilter(filterId, null);
+        }
+        List<Rule> rules = new ArrayList<>();
+        for (FilterRule rule : ((DefaultActionFilter) filter).getRules()) {
+            if (!isEmpty(rule.getPermissions()) || !isEmpty(rule.getGroups()) || !isEmpty(rule.getConditions())) {
+                return new DocumentFilter(filterId, null);
+            }
+            rules.add(new Rule(rule.getGrant(), rule.getTypes(), rule.getFacets(), rule.getSchemas()));
+        }
+        return new DocumentFilter(filterId, rules);
+    }
+
+    /**
+     * @return true if the filter was compiled, false if it is evaluated by the {@link ActionManager}
+     */
+    public boolean isCompiled() {
+        return rules != null;
+    }
+
+    public boolean accept(DocumentModel doc) {
+        if (rules == null) {
+            ActionContext actionContext = new ELActionContext();
+            actionContext.setCurrentDocument(doc);
+            return Framework.getService(ActionManager.class).checkFilter(filterId, actionContext);
+        }
+        if (filterId == null || doc == null) {
+            return false;
+        }
+        // the schemas of a document only depend on its type and facets
+        Object key = dependsOnFacets ? Arrays.asList(doc.getType(), new HashSet<>(doc.getFacets())) : doc.getType();
+        Boolean accepted = cache.get(key);
+        if (accepted == null) {
+            accepted = evaluate(doc);
+            if (cache.size() >= MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            cache.put(key, accepted);
+        }
+        return accepted;
+    }
+
+    /**
+     * Same logic as {@link DefaultActionFilter}: a matching deny rule rejects the document, else it is accepted if a
+     * grant rule matches or if there is no grant rule.
+     */
+    protected boolean evaluate(DocumentModel doc) {
+        boolean hasGrantRule = false;
+        boolean granted = false;
+        for (Rule rule : rules) {
+            boolean matches = rule.matches(doc);
+            if (!rule.grant) {
+                if (matches) {
+                    return false;
+                }
+            } else {
+                hasGrantRule = true;
+                granted |= matches;
+            }
+        }
+        return !hasGrantRule || granted;
+    }
+
+    protected static boolean isEmpty(String[] values) {
+        return values == null || values.length == 0;
+    }
+
+    protected static Set<String> toSet(String[] values) {
+        return isEmpty(values) ? Collections.emptySet() : new HashSet<>(Arrays.asList(values));
+    }
+
+    protected static class Rule {
+
+        protected final boolean grant;
+
+        protected final Set<String> types;
+
+        protected final Set<String> facets;
+
+        protected final Set<String> schemas;
+
+        protected Rule(boolean grant, String[] types, String[] facets, String[] schemas) {
+            this.grant = grant;
+            this.types = toSet(types);
+            this.facets = toSet(facets);
+            this.schemas = toSet(schemas);
+        }
+
+        protected boolean dependsOnFacets() {
+            return !facets.isEmpty() || !schemas.isEmpty();
+        }
+
+        protected boolean matches(DocumentModel doc) {
+            if (!types.isEmpty() && !types.contains(doc.getType())) {
+                return false;
+            }
+            if (!facets.isEmpty() && facets.stream().noneMatch(doc::hasFacet)) {
+                return false;
+            }
+            return schemas.isEmpty() || schemas.stream().anyMatch(doc::hasSchema);
+        }
+    }
+
+}
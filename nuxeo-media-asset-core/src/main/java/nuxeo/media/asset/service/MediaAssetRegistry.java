@@ -0,0 +1,219 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+import nuxeo.media.asset.archive.ArchiveInspector;
+import nuxeo.media.asset.detection.MimetypeDetector;
+
+/**
+ * An immutable view of the contributions to the media asset service, rebuilt on each registration and published as a
+ * whole so that a classification always sees a consistent set of media types, zip content, archive inspectors and
+ * mimetype detectors.
+ */
+public class MediaAssetRegistry {
+
+    public static final MediaAssetRegistry EMPTY = new MediaAssetRegistry(Collections.emptyList(), null,
+            Collections.emptyList(), Collections.emptyList());
+
+    protected final Map<String, MediaTypeDescriptor> mediatypes;
+
+    protected final List<String> mediaFacets;
+
+    protected final MimetypeListDescriptor supportedZipContent;
+
+    protected final Map<String, ArchiveInspector> archiveInspectors;
+
+    protected final List<MimetypeDetector> detectors;
+
+    protected final String version;
+
+    /**
+     * Built on first use, threads racing to build it compute the same index.
+     */
+    protected volatile MediaTypeIndex index;
+
+    /**
+     * @param mediatypes the media type contributions in registration order, the last one of a name wins
+     * @param supportedZipContent the supported zip content, null if none
+     * @param inspectors the archive inspector contributions in registration order, the last one of a name wins
+     * @param detectors the mimetype detector contributions in registration order, the last one of a name wins
+     */
+    public MediaAssetRegistry(List<MediaTypeDescriptor> mediatypes, MimetypeListDescriptor supportedZipContent,
+            List<ArchiveInspectorDescriptor> inspectors, List<MimetypeDetectorDescriptor> detectors) {
+        Map<String, MediaTypeDescriptor> byName = new LinkedHashMap<>();
+        // the facets of overridden media types are still managed, so that they are removed from the documents
+        Set<String> facets = new LinkedHashSet<>();
+        for (MediaTypeDescriptor descriptor : mediatypes) {
+            byName.put(descriptor.getName(), descriptor);
+            facets.addAll(descriptor.getFacets());
+        }
+        this.mediatypes = Collections.unmodifiableMap(byName);
+        // everything the result of a classification depends on
+        StringBuilder rules = new StringBuilder();
+        for (MediaTypeDescriptor descriptor : byName.values()) {
+            rules.append("mediatype:")
+                 .append(descriptor.getName())
+                 .append(descriptor.isEnabled())
+                 .append(descriptor.getOrder())
+                 .append(descriptor.getMimetypes())
+                 .append(descriptor.getExtensions())
+                 .append(descriptor.getFacets())
+                 .append('\n');
+        }
+        if (supportedZipContent != null) {
+            rules.append("supportedZipContent:")
+                 .append(supportedZipContent.getMimetypes())
+                 .append(supportedZipContent.getExtensions())
+                 .append('\n');
+        }
+        this.mediaFacets = Collections.unmodifiableList(new ArrayList<>(facets));
+        this.supportedZipContent = supportedZipContent;
+
+        Map<String, ArchiveInspectorDescriptor> inspectorsByName = new LinkedHashMap<>();
+        for (ArchiveInspectorDescriptor descriptor : inspectors) {
+            inspectorsByName.put(descriptor.getName(), descriptor);
+        }
+        Map<String, ArchiveInspector> byMimetype = new HashMap<>();
+        for (ArchiveInspectorDescriptor descriptor : inspectorsByName.values()) {
+            if (descriptor.isEnabled()) {
+                ArchiveInspector inspector = descriptor.newInstance();
+                for (String mimetype : descriptor.getMimetypes()) {
+                    byMimetype.put(mimetype, inspector);
+                }
+                rules.append("archiveInspector:")
+                     .append(inspector.getClass().getName())
+                     .append(descriptor.getMimetypes())
+                     .append('\n');
+            }
+        }
+        this.archiveInspectors = Collections.unmodifiableMap(byMimetype);
+
+        Map<String, MimetypeDetectorDescriptor> detectorsByName = new LinkedHashMap<>();
+        for (MimetypeDetectorDescriptor descriptor : detectors) {
+            detectorsByName.put(descriptor.getName(), descriptor);
+        }
+        List<MimetypeDetectorDescriptor> enabled = new ArrayList<>();
+        for (MimetypeDetectorDescriptor descriptor : detectorsByName.values()) {
+            if (descriptor.isEnabled()) {
+                enabled.add(descriptor);
+            }
+        }
+        // stable sort, detectors of the same cost and order are asked in registration order
+        enabled.sort(Comparator.comparing(MimetypeDetectorDescriptor::getCost)
+                               .thenComparingInt(MimetypeDetectorDescriptor::getOrder));
+        List<MimetypeDetector> chain = new ArrayList<>();
+        for (MimetypeDetectorDescriptor descriptor : enabled) {
+            MimetypeDetector detector = descriptor.newInstance();
+            chain.add(detector);
+            rules.append("detector:").append(detector.getClass().getName()).append('\n');
+        }
+        this.detectors = Collections.unmodifiableList(chain);
+        this.version = hash(rules.toString());
+    }
+
+    /**
+     * @return the media types by name
+     */
+    public Map<String, MediaTypeDescriptor> getMediaTypes() {
+        return mediatypes;
+    }
+
+    /**
+     * @return the facets of all the media types, in registration order
+     */
+    public List<String> getMediaFacets() {
+        return mediaFacets;
+    }
+
+    /**
+     * @return the supported zip content, null if none
+     */
+    public MimetypeListDescriptor getSupportedZipContent() {
+        return supportedZipContent;
+    }
+
+    /**
+     * @param mimetype a blob mimetype
+     * @return the inspector of the archives of this mimetype, null if the mimetype is not an inspected archive
+     */
+    public ArchiveInspector getArchiveInspector(String mimetype) {
+        return mimetype != null ? archiveInspectors.get(mimetype) : null;
+    }
+
+    /**
+     * @return the enabled mimetype detectors, from the cheapest to the most expensive
+     */
+    public List<MimetypeDetector> getDetectors() {
+        return detectors;
+    }
+
+    /**
+     * @return a hash of the contributions a classification depends on, equal on all the nodes deploying the same
+     *         contributions
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    protected static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            // 64 bits are enough to tell apart the rule sets of a deployment
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new NuxeoException(e);
+        }
+    }
+
+    /**
+     * @param useAutomaton whether the index matches all the mimetype patterns in a single scan, only asked when the
+     *            index is built
+     * @return the classification index of the media types
+     */
+    public MediaTypeIndex getIndex(BooleanSupplier useAutomaton) {
+        MediaTypeIndex current = index;
+        if (current == null) {
+            current = new MediaTypeIndex(mediatypes.values(), useAutomaton.getAsBoolean());
+            index = current;
+        }
+        return current;
+    }
+
+}
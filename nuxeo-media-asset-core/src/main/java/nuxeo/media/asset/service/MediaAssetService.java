@@ -19,9 +19,12 @@
 
 package nuxeo.media.asset.service;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 
 /**
@@ -30,12 +33,41 @@ import org.nuxeo.ecm.core.api.DocumentModel;
  */
 public interface MediaAssetService {
 
+    /**
+     * Context data key of the {@link BlobClassification} of the file:content blob, set by the importers that already
+     * classified the blob.
+     */
+    String CLASSIFICATION_CONTEXT_DATA = "nuxeo.media.asset.classification";
+
+    /**
+     * Facet of the documents storing their classification, when enabled.
+     */
+    String MEDIA_ASSET_FACET = "MediaAsset";
+
+    String MEDIA_ASSET_SCHEMA = "mediaasset";
+
     /**
      * @param doc a DocumentModel object
      * @return true if the document is supported by the service
      */
     boolean isDocumentSupported(DocumentModel doc);
 
+    /**
+     * @param session a session
+     * @param containerPath the path of a container
+     * @param docType a document type
+     * @return true if documents of the given type can be created in the container
+     */
+    boolean isAllowedSubtype(CoreSession session, String containerPath, String docType);
+
+    /**
+     * Forgets the containers resolved by {@link #isAllowedSubtype(CoreSession, String, String)} at or below the path
+     * of the input document
+     *
+     * @param container a container being removed or moved
+     */
+    void invalidateContainer(DocumentModel container);
+
     /**
      * @param blob a blob
      * @return true if the blob is supported by the service
@@ -50,6 +82,60 @@ public interface MediaAssetService {
      */
     DocumentModel updateDocumentMediaFacet(DocumentModel doc);
 
+    /**
+     * Applies the facets of the classification to the input document
+     *
+     * @param doc a DocumentModel object
+     * @param classification the classification of the blob stored in file:content
+     * @return the input DocumentModel object
+     */
+    DocumentModel updateDocumentMediaFacet(DocumentModel doc, MediaClassification classification);
+
+    /**
+     * Applies the facets matching the blob stored in file:content to the input document, only the facets that differ
+     * are added or removed. A classification stored on the document for the same blob digest is reused instead of
+     * reading the blob again
+     *
+     * @param doc a DocumentModel object
+     * @return the facets added and removed, {@link MediaFacetDiff#NONE} if the document is unchanged
+     */
+    MediaFacetDiff applyMediaFacets(DocumentModel doc);
+
+    /**
+     * Applies the facets of the classification to the input document, only the facets that differ are added or
+     * removed. When enabled, the classification is also stored in the {@value #MEDIA_ASSET_SCHEMA} schema
+     *
+     * @param doc a DocumentModel object
+     * @param classification the classification of the blob stored in file:content
+     * @return the facets added and removed, {@link MediaFacetDiff#NONE} if the document is unchanged
+     */
+    MediaFacetDiff applyMediaFacets(DocumentModel doc, MediaClassification classification);
+
+    /**
+     * Classify the input blob
+     *
+     * @param blob a blob
+     * @return the classification of the blob, {@link MediaClassification#NONE} if the blob is null
+     */
+    MediaClassification classify(Blob blob);
+
+    /**
+     * Classify the input blob from its filename and mimetype only, without reading its content
+     *
+     * @param blob a blob
+     * @return the guessed classification of the blob, {@link MediaClassification#NONE} if the blob is null
+     */
+    MediaClassification classifyFromFilename(Blob blob);
+
+    /**
+     * Get the classification of the input blob if it was already computed for a blob with the same digest, without
+     * reading its content
+     *
+     * @param blob a blob
+     * @return the cached classification of the blob, null if none
+     */
+    MediaClassification getCachedClassification(Blob blob);
+
     /**
      * Get the Document facets corresponding to the input blob
      * 
@@ -58,6 +144,24 @@ public interface MediaAssetService {
      */
     List<String> getMediaFacets(Blob blob);
 
+    /**
+     * Get the Document facets corresponding to each input blob. The blobs are classified concurrently and blobs with
+     * the same digest are only classified once.
+     *
+     * @param blobs the blobs to classify
+     * @return the facets of each blob, in the iteration order of the input, one element per input blob
+     */
+    List<List<String>> getMediaFacets(Collection<Blob> blobs);
+
+    /**
+     * Asynchronous variant of {@link #getMediaFacets(Collection)}
+     *
+     * @param blobs the blobs to classify
+     * @return a future completed with the facets of each blob, in the iteration order of the input, one element per
+     *         input blob
+     */
+    CompletableFuture<List<List<String>>> getMediaFacetsAsync(Collection<Blob> blobs);
+
     /**
      * Get the Document facets corresponding to the input mimetype and extension
      * 
@@ -20,99 +20,510 @@
 package nuxeo.media.asset.service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Optional;
-import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
-import org.nuxeo.ecm.platform.actions.ActionContext;
-import org.nuxeo.ecm.platform.actions.ELActionContext;
-import org.nuxeo.ecm.platform.actions.ejb.ActionManager;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.PathRef;
 import org.nuxeo.ecm.platform.filemanager.utils.FileManagerUtils;
+import org.nuxeo.ecm.platform.mimetype.MimetypeNotFoundException;
 import org.nuxeo.ecm.platform.mimetype.interfaces.MimetypeRegistry;
+import org.nuxeo.ecm.platform.types.TypeManager;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.ComponentInstance;
 import org.nuxeo.runtime.model.DefaultComponent;
 import org.nuxeo.runtime.services.config.ConfigurationService;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.dropwizard.metrics5.Timer;
+
+import nuxeo.media.asset.archive.ArchiveInspection;
+import nuxeo.media.asset.archive.ArchiveInspector;
+import nuxeo.media.asset.archive.ArchiveLimitException;
+import nuxeo.media.asset.detection.DetectedMimetype;
+import nuxeo.media.asset.detection.HeaderMimetypeDetector;
+import nuxeo.media.asset.detection.MimetypeDetector;
+import nuxeo.media.asset.metrics.MediaAssetMetrics;
+
 public class MediaAssetServiceImpl extends DefaultComponent implements MediaAssetService {
 
+    private static final Logger log = LogManager.getLogger(MediaAssetServiceImpl.class);
+
     public static final String MIMETYPE_ZIP = "application/zip";
 
     public static String MEDIA_TYPE_EXT_POINT = "mediatype";
 
     public static String SUPPORTED_ZIP_CONTENT_EXT_POINT = "supportedZipContent";
 
+    public static String ARCHIVE_INSPECTOR_EXT_POINT = "archiveInspector";
+
+    public static String MIMETYPE_DETECTOR_EXT_POINT = "mimetypeDetector";
+
     public static String INPUT_FILTER_KEY = "nuxeo.media.asset.service.default.filter.name";
 
-    public List<String> allMediaFacets = new ArrayList<>();
+    public static final String MATCHER_KEY = "nuxeo.media.asset.service.matcher";
+
+    public static final String MATCHER_AUTOMATON = "automaton";
+
+    public static final String CACHE_MAX_SIZE_KEY = "nuxeo.media.asset.service.cache.maxSize";
+
+    public static final String CACHE_TTL_KEY = "nuxeo.media.asset.service.cache.ttl";
+
+    public static final String SHARED_CACHE_STORE_KEY = "nuxeo.media.asset.service.cache.shared.store";
+
+    public static final String SHARED_CACHE_TTL_KEY = "nuxeo.media.asset.service.cache.shared.ttl";
+
+    public static final String SNIFFER_MAX_HEADER_SIZE_KEY = HeaderMimetypeDetector.MAX_HEADER_SIZE_KEY;
+
+    public static final String ARCHIVE_MAX_ENTRIES_KEY = "nuxeo.media.asset.service.archive.maxEntries";
+
+    public static final String ARCHIVE_MAX_BYTES_KEY = "nuxeo.media.asset.service.archive.maxBytes";
+
+    public static final String ARCHIVE_MAX_DEPTH_KEY = "nuxeo.media.asset.service.archive.maxDepth";
+
+    public static final String ARCHIVE_MAX_TIME_KEY = "nuxeo.media.asset.service.archive.maxTime";
+
+    /**
+     * Reason of an inconclusive inspection of an archive that cannot be read.
+     */
+    public static final String ARCHIVE_UNREADABLE = "unreadable";
+
+    public static final String PERSIST_KEY = "nuxeo.media.asset.service.persist";
+
+    public static final String MEDIA_ASSET_MIMETYPE_PROPERTY = MEDIA_ASSET_SCHEMA + ":mimetype";
+
+    public static final String MEDIA_ASSET_MEDIA_TYPE_PROPERTY = MEDIA_ASSET_SCHEMA + ":mediaType";
+
+    public static final String MEDIA_ASSET_ARCHIVE_ENTRY_PROPERTY = MEDIA_ASSET_SCHEMA + ":archiveEntry";
+
+    public static final String MEDIA_ASSET_SOURCE_PROPERTY = MEDIA_ASSET_SCHEMA + ":source";
+
+    public static final String MEDIA_ASSET_DIGEST_PROPERTY = MEDIA_ASSET_SCHEMA + ":digest";
+
+    /**
+     * Algorithm of the digests computed for the blobs not stored yet, it must be the one of the blob provider for the
+     * stored classifications to be reused.
+     */
+    public static final String DIGEST_ALGORITHM_KEY = "nuxeo.media.asset.service.digest.algorithm";
+
+    public static final String SUBTYPES_CACHE_TTL_KEY = "nuxeo.media.asset.service.subtypes.ttl";
+
+    public static final String BATCH_THREADS_KEY = "nuxeo.media.asset.service.batch.threads";
+
+    public static final String BATCH_QUEUE_SIZE_KEY = "nuxeo.media.asset.service.batch.queueSize";
+
+    public static final long DEFAULT_CACHE_MAX_SIZE = 10_000;
+
+    public static final long DEFAULT_ARCHIVE_MAX_ENTRIES = 100_000;
 
-    protected Map<String, MediaTypeDescriptor> mediatypes = new HashMap<>();
+    public static final long DEFAULT_ARCHIVE_MAX_BYTES = 1024L * 1024 * 1024;
 
-    protected MimetypeListDescriptor supportedZipContent;
+    public static final int DEFAULT_ARCHIVE_MAX_DEPTH = 2;
+
+    public static final Duration DEFAULT_ARCHIVE_MAX_TIME = Duration.ofSeconds(10);
+
+    public static final int DEFAULT_BATCH_THREADS = 4;
+
+    public static final int DEFAULT_BATCH_QUEUE_SIZE = 1000;
+
+    public static final Duration DEFAULT_CACHE_TTL = Duration.ofHours(1);
+
+    public static final Duration DEFAULT_SHARED_CACHE_TTL = Duration.ofDays(7);
+
+    public static final String DEFAULT_DIGEST_ALGORITHM = "MD5";
+
+    public static final Duration DEFAULT_SUBTYPES_CACHE_TTL = Duration.ofMinutes(1);
+
+    /**
+     * Contributions in registration order, guarded by the list itself.
+     */
+    protected final List<Object> contributions = new ArrayList<>();
+
+    /**
+     * The current view of the contributions, replaced as a whole on each registration.
+     */
+    protected final AtomicReference<MediaAssetRegistry> registry = new AtomicReference<>(MediaAssetRegistry.EMPTY);
+
+    /**
+     * Classifications by blob digest and extension, null when disabled.
+     */
+    protected volatile Cache<String, MediaClassification> cache;
+
+    protected volatile boolean cacheInitialized;
+
+    /**
+     * Classifications shared by the nodes of the cluster, null when disabled.
+     */
+    protected volatile SharedClassificationCache sharedCache;
+
+    protected volatile boolean sharedCacheInitialized;
+
+    protected volatile DocumentFilter documentFilter;
+
+    /**
+     * Allowed-subtype decisions by repository, container id and type, created on first use.
+     */
+    protected volatile Cache<String, Boolean> allowedSubtypes;
+
+    /**
+     * Id and type of the containers by repository and path, created on first use.
+     */
+    protected volatile Cache<String, Pair<String, String>> containers;
+
+    /**
+     * Executor of the batch classifications, created on first use.
+     */
+    protected ExecutorService batchExecutor;
+
+    protected final MediaAssetMetrics metrics = new MediaAssetMetrics();
 
     @Override
     public void registerContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
-        if (MEDIA_TYPE_EXT_POINT.equals(extensionPoint)) {
-            MediaTypeDescriptor descriptor = (MediaTypeDescriptor) contribution;
-            mediatypes.put(descriptor.name, descriptor);
-            for (String facet : descriptor.getFacets()) {
-                if (!allMediaFacets.contains(facet)) {
-                    allMediaFacets.add(facet);
-                }
+        if (isRegistryExtensionPoint(extensionPoint)) {
+            synchronized (contributions) {
+                contributions.add(contribution);
+                publishRegistry();
             }
-        } else if (SUPPORTED_ZIP_CONTENT_EXT_POINT.equals(extensionPoint)) {
-            supportedZipContent = (MimetypeListDescriptor) contribution;
+        }
+    }
+
+    @Override
+    public void unregisterContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
+        if (isRegistryExtensionPoint(extensionPoint)) {
+            synchronized (contributions) {
+                contributions.remove(contribution);
+                publishRegistry();
+            }
+        }
+    }
+
+    protected boolean isRegistryExtensionPoint(String extensionPoint) {
+        return MEDIA_TYPE_EXT_POINT.equals(extensionPoint) || SUPPORTED_ZIP_CONTENT_EXT_POINT.equals(extensionPoint)
+                || ARCHIVE_INSPECTOR_EXT_POINT.equals(extensionPoint) || MIMETYPE_DETECTOR_EXT_POINT.equals(extensionPoint);
+    }
+
+    /**
+     * Rebuilds the registry from the current contributions, then drops the classifications computed with the
+     * previous one.
+     */
+    protected void publishRegistry() {
+        List<MediaTypeDescriptor> mediatypes = new ArrayList<>();
+        MimetypeListDescriptor supportedZipContent = null;
+        List<ArchiveInspectorDescriptor> inspectors = new ArrayList<>();
+        List<MimetypeDetectorDescriptor> detectors = new ArrayList<>();
+        for (Object contribution : contributions) {
+            if (contribution instanceof MediaTypeDescriptor) {
+                mediatypes.add((MediaTypeDescriptor) contribution);
+            } else if (contribution instanceof MimetypeListDescriptor) {
+                supportedZipContent = (MimetypeListDescriptor) contribution;
+            } else if (contribution instanceof ArchiveInspectorDescriptor) {
+                inspectors.add((ArchiveInspectorDescriptor) contribution);
+            } else if (contribution instanceof MimetypeDetectorDescriptor) {
+                detectors.add((MimetypeDetectorDescriptor) contribution);
+            }
+        }
+        registry.set(new MediaAssetRegistry(mediatypes, supportedZipContent, inspectors, detectors));
+        invalidateCache();
+    }
+
+    /**
+     * @return the current view of the contributions
+     */
+    public MediaAssetRegistry getRegistry() {
+        return registry.get();
+    }
+
+    /**
+     * @return the facets managed by the service
+     */
+    public List<String> getAllMediaFacets() {
+        return registry.get().getMediaFacets();
+    }
+
+    @Override
+    public void start(ComponentContext context) {
+        // action filters and document types may have changed
+        documentFilter = null;
+        allowedSubtypes = null;
+        containers = null;
+    }
+
+    @Override
+    public void stop(ComponentContext context) throws InterruptedException {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = batchExecutor;
+            batchExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
         }
     }
 
     @Override
     public boolean isDocumentSupported(DocumentModel doc) {
-        ActionManager actionService = Framework.getService(ActionManager.class);
-        ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
-        ActionContext actionContext = new ELActionContext();
-        actionContext.setCurrentDocument(doc);
-        Optional<String> filterId = configurationService.getString(INPUT_FILTER_KEY);
-        return filterId.isPresent() && actionService.checkFilter(filterId.get(), actionContext);
+        try (Timer.Context timer = metrics.getFilterTimer().time()) {
+            return getDocumentFilter().accept(doc);
+        }
     }
 
+    /**
+     * Checks the container type and its local configuration once per container. The container is resolved from its
+     * path once, then the decision is keyed by the container id and type, so that it does not outlive a container
+     * deleted or replaced at the same path. Both are kept for the duration set by {@value #SUBTYPES_CACHE_TTL_KEY}, so
+     * that a change of local configuration is eventually seen, and dropped when the runtime is reloaded with other
+     * document types. The paths of a container removed or moved on this node are dropped at once, see
+     * {@link #invalidateContainer(DocumentModel)}.
+     */
     @Override
-    public boolean isBlobSupported(Blob blob) {
-        if (blob == null) {
-            return false;
+    public boolean isAllowedSubtype(CoreSession session, String containerPath, String docType) {
+        Cache<String, Pair<String, String>> currentContainers = getContainersCache();
+        String pathKey = session.getRepositoryName() + ':' + containerPath;
+        Pair<String, String> container = currentContainers.getIfPresent(pathKey);
+        DocumentModel containerDoc = null;
+        if (container == null) {
+            containerDoc = session.getDocument(new PathRef(containerPath));
+            container = Pair.of(containerDoc.getId(), containerDoc.getType());
+            currentContainers.put(pathKey, container);
+        }
+        Cache<String, Boolean> current = getAllowedSubtypesCache();
+        String key = session.getRepositoryName() + ':' + container.getLeft() + ':' + container.getRight() + '|'
+                + docType;
+        Boolean allowed = current.getIfPresent(key);
+        if (allowed == null) {
+            if (containerDoc == null) {
+                containerDoc = session.getDocument(new IdRef(container.getLeft()));
+            }
+            allowed = Framework.getService(TypeManager.class)
+                               .isAllowedSubType(docType, container.getRight(), containerDoc);
+            current.put(key, allowed);
+        }
+        return allowed;
+    }
+
+    @Override
+    public void invalidateContainer(DocumentModel container) {
+        Cache<String, Pair<String, String>> current = containers;
+        if (current == null || container.getPathAsString() == null) {
+            return;
+        }
+        String pathKey = container.getRepositoryName() + ':' + container.getPathAsString();
+        current.asMap().keySet().removeIf(key -> key.equals(pathKey) || key.startsWith(pathKey + '/'));
+    }
+
+    protected Cache<String, Boolean> getAllowedSubtypesCache() {
+        Cache<String, Boolean> current = allowedSubtypes;
+        if (current == null) {
+            current = newSubtypesCache();
+            allowedSubtypes = current;
+        }
+        return current;
+    }
+
+    protected Cache<String, Pair<String, String>> getContainersCache() {
+        Cache<String, Pair<String, String>> current = containers;
+        if (current == null) {
+            current = newSubtypesCache();
+            containers = current;
         }
-        MimetypeRegistry registry = Framework.getService(MimetypeRegistry.class);
-        String mimetype = registry.getMimetypeFromFilenameAndBlobWithDefault(blob.getFilename(), blob, null);
+        return current;
+    }
 
-        if (MIMETYPE_ZIP.equals(mimetype)) {
-            return getZipContentMimetype(blob) != null;
-        } else {
-            return true;
+    protected <V> Cache<String, V> newSubtypesCache() {
+        ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
+        Duration ttl = configurationService.getDuration(SUBTYPES_CACHE_TTL_KEY, DEFAULT_SUBTYPES_CACHE_TTL);
+        return CacheBuilder.newBuilder()
+                           .maximumSize(DEFAULT_CACHE_MAX_SIZE)
+                           .expireAfterWrite(ttl.toMillis(), TimeUnit.MILLISECONDS)
+                           .build();
+    }
+
+    /**
+     * @return the configured document filter, compiled on first use
+     */
+    protected DocumentFilter getDocumentFilter() {
+        DocumentFilter current = documentFilter;
+        if (current == null) {
+            ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
+            current = DocumentFilter.of(configurationService.getString(INPUT_FILTER_KEY).orElse(null));
+            log.debug("Using document filter {}, compiled: {}", current.filterId, current.isCompiled());
+            documentFilter = current;
         }
+        return current;
+    }
+
+    @Override
+    public boolean isBlobSupported(Blob blob) {
+        return blob != null && classify(blob).isSupported();
     }
 
     @Override
     public DocumentModel updateDocumentMediaFacet(DocumentModel doc) {
+        applyMediaFacets(doc);
+        return doc;
+    }
+
+    @Override
+    public DocumentModel updateDocumentMediaFacet(DocumentModel doc, MediaClassification classification) {
+        applyMediaFacets(doc, classification);
+        return doc;
+    }
+
+    @Override
+    public MediaFacetDiff applyMediaFacets(DocumentModel doc) {
+        try (Timer.Context timer = metrics.getFacetUpdateTimer().time()) {
+            Blob blob = (Blob) doc.getPropertyValue("file:content");
+            MediaClassification classification = null;
+            Serializable contextData = doc.getContextData(CLASSIFICATION_CONTEXT_DATA);
+            if (contextData instanceof BlobClassification && ((BlobClassification) contextData).isValidFor(blob)) {
+                classification = ((BlobClassification) contextData).getClassification();
+            }
+            if (classification == null) {
+                classification = getStoredClassification(doc, blob);
+            }
+            return applyMediaFacets(doc, classification != null ? classification : classify(blob));
+        }
+    }
+
+    @Override
+    public MediaFacetDiff applyMediaFacets(DocumentModel doc, MediaClassification classification) {
+        boolean persist = isPersistenceEnabled();
+        Collection<String> mediaFacets = getAllMediaFacets();
+        Set<String> target = new HashSet<>(classification.getFacets());
+        if (persist) {
+            mediaFacets = new ArrayList<>(mediaFacets);
+            mediaFacets.add(MEDIA_ASSET_FACET);
+            target.add(MEDIA_ASSET_FACET);
+        }
+        MediaFacetDiff diff = MediaFacetDiff.of(mediaFacets, doc.getFacets(), target);
+        diff.getAdded().forEach(doc::addFacet);
+        diff.getRemoved().forEach(doc::removeFacet);
+        if (persist && storeClassification(doc, classification)) {
+            diff = diff.withStoredClassificationUpdated();
+        }
+        return diff;
+    }
+
+    /**
+     * @return true if the classification is stored on the documents along with the facets
+     */
+    protected boolean isPersistenceEnabled() {
+        return Framework.getService(ConfigurationService.class).isBooleanTrue(PERSIST_KEY);
+    }
+
+    /**
+     * Stores the classification in the {@value #MEDIA_ASSET_SCHEMA} schema, only the properties that differ are set.
+     * The digest of a blob not stored yet is computed, a guess from the filename is never reused so it is stored
+     * without digest.
+     *
+     * @return true if a property changed
+     */
+    protected boolean storeClassification(DocumentModel doc, MediaClassification classification) {
         Blob blob = (Blob) doc.getPropertyValue("file:content");
-        List<String> facets = getMediaFacets(blob);
-        for (String mediaFacet : allMediaFacets) {
-            if (facets.contains(mediaFacet)) {
-                doc.addFacet(mediaFacet);
-            } else if (doc.hasFacet(mediaFacet)) {
-                doc.removeFacet(mediaFacet);
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put(MEDIA_ASSET_MIMETYPE_PROPERTY, classification.getMimetype());
+        values.put(MEDIA_ASSET_MEDIA_TYPE_PROPERTY, classification.getMediaType());
+        values.put(MEDIA_ASSET_ARCHIVE_ENTRY_PROPERTY, classification.getArchiveEntry());
+        values.put(MEDIA_ASSET_SOURCE_PROPERTY, classification.getSource());
+        values.put(MEDIA_ASSET_DIGEST_PROPERTY,
+                MediaClassification.SOURCE_FILENAME.equals(classification.getSource()) ? null : getDigest(blob));
+        boolean changed = false;
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            if (!Objects.equals(value.getValue(), doc.getPropertyValue(value.getKey()))) {
+                doc.setPropertyValue(value.getKey(), value.getValue());
+                changed = true;
             }
         }
-        return doc;
+        return changed;
+    }
+
+    /**
+     * @return the digest of the blob, computed with the algorithm set by {@value #DIGEST_ALGORITHM_KEY} when the blob
+     *         is not stored yet, null if the blob is null or cannot be read
+     */
+    protected String getDigest(Blob blob) {
+        if (blob == null) {
+            return null;
+        } else if (blob.getDigest() != null) {
+            return blob.getDigest();
+        }
+        String algorithm = Framework.getService(ConfigurationService.class)
+                                    .getString(DIGEST_ALGORITHM_KEY, DEFAULT_DIGEST_ALGORITHM);
+        try (InputStream stream = blob.getStream()) {
+            MessageDigest digest = MessageDigest.getInstance(algorithm);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+            return Hex.encodeHexString(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.warn("Cannot compute the digest of {}", blob.getFilename(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Rebuilds the classification stored on the document when it was computed for the same blob digest. The stored
+     * mimetype is matched against the current media types, the blob is not read.
+     *
+     * @return the stored classification, null if none, if it was computed for another blob or only guessed from the
+     *         filename
+     */
+    protected MediaClassification getStoredClassification(DocumentModel doc, Blob blob) {
+        if (blob == null || !doc.hasFacet(MEDIA_ASSET_FACET) || !isPersistenceEnabled()) {
+            return null;
+        }
+        String digest = blob.getDigest();
+        String source = (String) doc.getPropertyValue(MEDIA_ASSET_SOURCE_PROPERTY);
+        if (StringUtils.isBlank(digest) || !digest.equals(doc.getPropertyValue(MEDIA_ASSET_DIGEST_PROPERTY))
+                || source == null || MediaClassification.SOURCE_FILENAME.equals(source)) {
+            return null;
+        }
+        String mimetype = (String) doc.getPropertyValue(MEDIA_ASSET_MIMETYPE_PROPERTY);
+        // archives are stored without mimetype when no supported content was found, possibly because the inspection
+        // stopped on a limit, they are inspected again
+        if (mimetype == null && MediaClassification.SOURCE_ARCHIVE.equals(source)) {
+            return null;
+        }
+        String archiveEntry = (String) doc.getPropertyValue(MEDIA_ASSET_ARCHIVE_ENTRY_PROPERTY);
+        return newClassification(registry.get(), mimetype, FileUtils.getFileExtension(blob.getFilename()), true,
+                archiveEntry, source);
     }
 
     @Override
@@ -120,45 +531,317 @@ public class MediaAssetServiceImpl extends DefaultComponent implements MediaAsse
         if (blob == null) {
             return new ArrayList<>();
         }
+        return classify(blob).getFacets();
+    }
 
-        String extension = FileUtils.getFileExtension(blob.getFilename());
+    @Override
+    public List<List<String>> getMediaFacets(Collection<Blob> blobs) {
+        try {
+            return getMediaFacetsAsync(blobs).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
 
-        MimetypeRegistry registry = Framework.getService(MimetypeRegistry.class);
-        String mimetype = registry.getMimetypeFromFilenameAndBlobWithDefault(blob.getFilename(), blob, null);
+    /**
+     * Blobs are deduplicated by digest and extension, never with {@link Blob#equals(Object)} which compares the content
+     * of the blobs without digest.
+     */
+    @Override
+    public CompletableFuture<List<List<String>>> getMediaFacetsAsync(Collection<Blob> blobs) {
+        ExecutorService executor = getBatchExecutor();
+        Map<String, CompletableFuture<MediaClassification>> byKey = new HashMap<>();
+        List<CompletableFuture<MediaClassification>> futures = new ArrayList<>(blobs.size());
+        for (Blob blob : blobs) {
+            String key = blob != null ? getCacheKey(blob, FileUtils.getFileExtension(blob.getFilename())) : null;
+            CompletableFuture<MediaClassification> future = key != null ? byKey.get(key) : null;
+            if (future == null) {
+                future = blob == null ? CompletableFuture.completedFuture(MediaClassification.NONE)
+                        : CompletableFuture.supplyAsync(() -> classify(blob), executor);
+                if (key != null) {
+                    byKey.put(key, future);
+                }
+            }
+            futures.add(future);
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> {
+            List<List<String>> result = new ArrayList<>(futures.size());
+            for (CompletableFuture<MediaClassification> future : futures) {
+                result.add(future.join().getFacets());
+            }
+            return result;
+        });
+    }
 
-        if (MIMETYPE_ZIP.equals(mimetype)) {
-            mimetype = getZipContentMimetype(blob);
+    /**
+     * @return the executor of the batch classifications, when its queue is full the caller classifies the blob itself
+     */
+    protected synchronized ExecutorService getBatchExecutor() {
+        if (batchExecutor == null) {
+            ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
+            int threads = Math.max(1, configurationService.getInteger(BATCH_THREADS_KEY, DEFAULT_BATCH_THREADS));
+            int queueSize = Math.max(1,
+                    configurationService.getInteger(BATCH_QUEUE_SIZE_KEY, DEFAULT_BATCH_QUEUE_SIZE));
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(queueSize),
+                    new ThreadFactoryBuilder().setNameFormat("media-asset-classifier-%d").setDaemon(true).build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            batchExecutor = executor;
         }
+        return batchExecutor;
+    }
 
-        return mimetype != null || extension != null ? getMediaFacets(mimetype, extension) : new ArrayList<>();
+    @Override
+    public MediaClassification classifyFromFilename(Blob blob) {
+        if (blob == null) {
+            return MediaClassification.NONE;
+        }
+        String mimetype = blob.getFilename() != null ? getZipEntryMimetype(blob.getFilename()) : null;
+        if (mimetype == null) {
+            mimetype = blob.getMimeType();
+        }
+        String extension = FileUtils.getFileExtension(blob.getFilename());
+        if (mimetype == null && extension == null) {
+            return MediaClassification.NONE;
+        }
+        MediaAssetRegistry current = registry.get();
+        if (current.getArchiveInspector(mimetype) != null) {
+            // archives are left unclassified until their content is read
+            return new MediaClassification(mimetype, null, MediaClassification.NONE.getFacets(), true, null,
+                    MediaClassification.SOURCE_FILENAME);
+        }
+        return newClassification(current, mimetype, extension, true, null, MediaClassification.SOURCE_FILENAME);
     }
 
+    /**
+     * Classifies the blob, reusing the cached result of a blob with the same digest and extension.
+     */
     @Override
-    public List<String> getMediaFacets(String mimetype, String extension) {
-        List<MediaTypeDescriptor> types = new ArrayList<>(mediatypes.values());
-        types.sort(Comparator.comparingInt(MediaTypeDescriptor::getOrder));
-        List<String> facets = new ArrayList<>();
-        Iterator<MediaTypeDescriptor> iterator = types.iterator();
-        while (facets.size() == 0 && iterator.hasNext()) {
-            MediaTypeDescriptor type = iterator.next();
-            if (type.isEnabled() &&
-                    (doesMimetypeMatchesType(mimetype, type) || doesMatchExtension(extension, type.getExtensions()))) {
-                facets = type.getFacets();
+    public MediaClassification classify(Blob blob) {
+        if (blob == null) {
+            return MediaClassification.NONE;
+        }
+        String extension = FileUtils.getFileExtension(blob.getFilename());
+        String key = getCacheKey(blob, extension);
+        MediaAssetRegistry snapshot = registry.get();
+        MediaClassification classification = key != null ? getCachedClassification(snapshot, key) : null;
+        if (classification == null) {
+            classification = doClassify(snapshot, blob, extension);
+            // not cached if computed with contributions replaced in the meantime, nor if a later classification may
+            // conclude
+            if (key != null && registry.get() == snapshot && !classification.isInconclusive()) {
+                Cache<String, MediaClassification> current = getCache();
+                if (current != null) {
+                    current.put(key, classification);
+                }
+                SharedClassificationCache shared = getSharedCache();
+                if (shared != null) {
+                    shared.put(snapshot, key, classification);
+                }
             }
         }
-        return facets;
+        metrics.matched(classification.getMediaType());
+        return classification;
     }
 
-    protected boolean doesMimetypeMatchesType(String mimetype, MediaTypeDescriptor type) {
-        if (mimetype != null) {
-            for (String mimetypePattern : type.mimetypes) {
-                Pattern pattern = Pattern.compile(mimetypePattern);
-                if (pattern.matcher(mimetype).matches()) {
-                    return true;
+    @Override
+    public MediaClassification getCachedClassification(Blob blob) {
+        if (blob == null) {
+            return null;
+        }
+        String key = getCacheKey(blob, FileUtils.getFileExtension(blob.getFilename()));
+        return key != null ? getCachedClassification(registry.get(), key) : null;
+    }
+
+    /**
+     * Looks the classification up in the local cache, then in the cache shared by the cluster.
+     */
+    protected MediaClassification getCachedClassification(MediaAssetRegistry snapshot, String key) {
+        Cache<String, MediaClassification> current = getCache();
+        MediaClassification classification = current != null ? current.getIfPresent(key) : null;
+        if (classification != null) {
+            return classification;
+        }
+        SharedClassificationCache shared = getSharedCache();
+        if (shared == null) {
+            return null;
+        }
+        classification = shared.get(snapshot, key);
+        metrics.sharedCacheLookup(classification != null);
+        if (classification != null && current != null && registry.get() == snapshot) {
+            current.put(key, classification);
+        }
+        return classification;
+    }
+
+    protected MediaClassification doClassify(MediaAssetRegistry current, Blob blob, String extension) {
+        DetectedMimetype detected = detectMimetype(current, blob);
+        String mimetype = detected.getMimetype();
+        String source = detected.getSource();
+        String archiveEntry = null;
+
+        boolean supported = true;
+        ArchiveInspector inspector = current.getArchiveInspector(mimetype);
+        ArchiveInspection inspection = inspector != null ? inspectArchive(current, blob, inspector) : null;
+        // a released archive, such as a gzip compressed file that is not a tar, is classified as a plain file
+        if (inspection != null && inspection.isClaimed()) {
+            if (inspection.isInconclusive()) {
+                return new MediaClassification(null, null, MediaClassification.NONE.getFacets(), false, null,
+                        MediaClassification.SOURCE_ARCHIVE, true);
+            }
+            mimetype = inspection.getMatchedMimetype();
+            archiveEntry = inspection.getMatchedEntry();
+            source = MediaClassification.SOURCE_ARCHIVE;
+            supported = mimetype != null;
+        }
+
+        return newClassification(current, mimetype, extension, supported, archiveEntry, source);
+    }
+
+    /**
+     * @return the classification of a detected mimetype, matched against the media types of the registry
+     */
+    protected MediaClassification newClassification(MediaAssetRegistry current, String mimetype, String extension,
+            boolean supported, String archiveEntry, String source) {
+        MediaTypeIndex.Rule rule = mimetype != null || extension != null
+                ? getIndex(current).match(mimetype, extension)
+                : null;
+        return rule != null
+                ? new MediaClassification(mimetype, rule.getName(), rule.getFacets(), supported, archiveEntry, source)
+                : new MediaClassification(mimetype, null, MediaClassification.NONE.getFacets(), supported,
+                        archiveEntry, source);
+    }
+
+    /**
+     * Detects the mimetype with the detector chain of the current registry.
+     */
+    protected String getMimetype(Blob blob) {
+        return detectMimetype(registry.get(), blob).getMimetype();
+    }
+
+    protected DetectedMimetype detectMimetype(MediaAssetRegistry current, Blob blob) {
+        try (Timer.Context timer = metrics.getMimetypeTimer().time()) {
+            DetectedMimetype detected = doDetectMimetype(current, blob);
+            metrics.detected(detected.getSource());
+            return detected;
+        }
+    }
+
+    /**
+     * Asks the detectors from the cheapest to the most expensive and stops at the first confident answer.
+     */
+    protected DetectedMimetype doDetectMimetype(MediaAssetRegistry current, Blob blob) {
+        for (MimetypeDetector detector : current.getDetectors()) {
+            try {
+                DetectedMimetype detected = detector.detect(blob);
+                if (detected != null && detected.getMimetype() != null) {
+                    return detected;
                 }
+            } catch (IOException e) {
+                log.debug("Cannot detect the mimetype of {} with {}: {}", blob.getFilename(),
+                        detector.getClass().getSimpleName(), e.getMessage());
             }
         }
-        return false;
+        return DetectedMimetype.UNKNOWN;
+    }
+
+    protected String getCacheKey(Blob blob, String extension) {
+        String digest = blob.getDigest();
+        if (StringUtils.isBlank(digest)) {
+            return null;
+        }
+        return extension != null ? digest + '|' + extension.toLowerCase(Locale.ROOT) : digest + '|';
+    }
+
+    /**
+     * @return the classification cache, null if disabled
+     */
+    protected Cache<String, MediaClassification> getCache() {
+        if (!cacheInitialized) {
+            synchronized (this) {
+                if (!cacheInitialized) {
+                    ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
+                    long maxSize = configurationService.getLong(CACHE_MAX_SIZE_KEY, DEFAULT_CACHE_MAX_SIZE);
+                    Duration ttl = configurationService.getDuration(CACHE_TTL_KEY, DEFAULT_CACHE_TTL);
+                    cache = maxSize > 0 ? CacheBuilder.newBuilder()
+                                                      .maximumSize(maxSize)
+                                                      .expireAfterWrite(ttl.toMillis(), TimeUnit.MILLISECONDS)
+                                                      .recordStats()
+                                                      .build()
+                            : null;
+                    cacheInitialized = true;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return the cache shared by the nodes of the cluster, null if no key/value store is configured
+     */
+    protected SharedClassificationCache getSharedCache() {
+        if (!sharedCacheInitialized) {
+            synchronized (this) {
+                if (!sharedCacheInitialized) {
+                    ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
+                    String storeName = configurationService.getString(SHARED_CACHE_STORE_KEY, null);
+                    Duration ttl = configurationService.getDuration(SHARED_CACHE_TTL_KEY, DEFAULT_SHARED_CACHE_TTL);
+                    sharedCache = StringUtils.isNotBlank(storeName) ? new SharedClassificationCache(
+                            Framework.getService(KeyValueService.class).getKeyValueStore(storeName.trim()),
+                            ttl.getSeconds()) : null;
+                    sharedCacheInitialized = true;
+                }
+            }
+        }
+        return sharedCache;
+    }
+
+    /**
+     * Drops all the cached classifications, called when the media types or the supported zip content change. The
+     * shared classifications are keyed by the rules version and do not need to be dropped.
+     */
+    public void invalidateCache() {
+        Cache<String, MediaClassification> current = cache;
+        if (current != null) {
+            current.invalidateAll();
+        }
+    }
+
+    /**
+     * @return the number of classifications served by the cache
+     */
+    public long getCacheHitCount() {
+        Cache<String, MediaClassification> current = cache;
+        return current != null ? current.stats().hitCount() : 0;
+    }
+
+    /**
+     * @return the number of classifications not found in the cache
+     */
+    public long getCacheMissCount() {
+        Cache<String, MediaClassification> current = cache;
+        return current != null ? current.stats().missCount() : 0;
+    }
+
+    @Override
+    public List<String> getMediaFacets(String mimetype, String extension) {
+        return getIndex(registry.get()).getFacets(mimetype, extension);
+    }
+
+    /**
+     * @return the classification index of the contributions, built on first use
+     */
+    protected MediaTypeIndex getIndex(MediaAssetRegistry current) {
+        return current.getIndex(this::useAutomaton);
+    }
+
+    protected boolean useAutomaton() {
+        ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
+        return MATCHER_AUTOMATON.equals(configurationService.getString(MATCHER_KEY, null));
     }
 
     protected boolean doesMatchExtension(String extension, List<String> extensions) {
@@ -173,34 +856,85 @@ public class MediaAssetServiceImpl extends DefaultComponent implements MediaAsse
         return false;
     }
 
-    protected String getZipContentMimetype(Blob zipBlob) {
-        MimetypeRegistry registry = Framework.getService(MimetypeRegistry.class);
-        String mimetype = null;
+    /**
+     * @return the mimetype of the first supported entry of the archive, null if none or if a limit was exceeded
+     */
+    protected String getArchiveContentMimetype(MediaAssetRegistry current, Blob archive, ArchiveInspector inspector) {
+        return inspectArchive(current, archive, inspector).getMatchedMimetype();
+    }
 
-        ZipEntry zipEntry;
-        try (ZipInputStream zipInputStream = new ZipInputStream(zipBlob.getStream())) {
-            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
-                // skip if the entry is a directory, if it's not a supported extension or
-                // if it's hidden (by convention)
-                if (zipEntry.isDirectory() || zipEntry.getName().startsWith(".")) {
-                    continue;
-                }
+    /**
+     * The archive is inspected even if no content is supported, for the inspector to release what is not an archive.
+     *
+     * @return the inspection of the archive, holding the first supported entry if any, inconclusive if stopped by a
+     *         limit or an unreadable archive
+     */
+    protected ArchiveInspection inspectArchive(MediaAssetRegistry current, Blob archive, ArchiveInspector inspector) {
+        MimetypeListDescriptor supportedZipContent = current.getSupportedZipContent();
+        ArchiveInspection inspection = newArchiveInspection(current, supportedZipContent);
+        try (Timer.Context timer = metrics.getZipTimer().time()) {
+            inspector.inspect(archive, inspection);
+        } catch (ArchiveLimitException e) {
+            log.debug("Stopped the inspection of {}: {}", archive.getFilename(), e.getMessage());
+            inspection.setInconclusive(e.getLimit());
+        } catch (IOException e) {
+            log.debug("Cannot inspect the archive {}: {}", archive.getFilename(), e.getMessage());
+            inspection.setInconclusive(ARCHIVE_UNREADABLE);
+        } finally {
+            metrics.zipScanned(inspection.getEntries(), inspection.getBytes());
+        }
+        if (inspection.isInconclusive()) {
+            metrics.zipInconclusive(inspection.getInconclusiveReason());
+        }
+        return inspection;
+    }
 
-                String name = FileManagerUtils.fetchTitle(zipEntry.getName());
-                String extension = FileUtils.getFileExtension(name);
+    protected ArchiveInspection newArchiveInspection(MediaAssetRegistry current,
+            MimetypeListDescriptor supportedZipContent) {
+        ConfigurationService configurationService = Framework.getService(ConfigurationService.class);
+        long maxEntries = configurationService.getLong(ARCHIVE_MAX_ENTRIES_KEY, DEFAULT_ARCHIVE_MAX_ENTRIES);
+        long maxBytes = configurationService.getLong(ARCHIVE_MAX_BYTES_KEY, DEFAULT_ARCHIVE_MAX_BYTES);
+        int maxDepth = configurationService.getInteger(ARCHIVE_MAX_DEPTH_KEY, DEFAULT_ARCHIVE_MAX_DEPTH);
+        Duration maxTime = configurationService.getDuration(ARCHIVE_MAX_TIME_KEY, DEFAULT_ARCHIVE_MAX_TIME);
+        return new ArchiveInspection(
+                name -> supportedZipContent != null ? getSupportedEntryMimetype(supportedZipContent, name) : null,
+                name -> current.getArchiveInspector(getZipEntryMimetype(name)), maxEntries, maxBytes, maxDepth,
+                maxTime);
+    }
 
-                String entryMimetype = registry.getMimetypeFromFilename(name);
-                if (supportedZipContent!= null
-                        && (supportedZipContent.getMimetypes().contains(entryMimetype)
-                            || doesMatchExtension(extension, supportedZipContent.getExtensions()))) {
-                    mimetype = entryMimetype;
-                    break;
-                }
-            }
-        } catch (IOException e) {
-            // just return
+    /**
+     * @return the mimetype of the archive entry if it is supported, null otherwise
+     */
+    protected String getSupportedEntryMimetype(MimetypeListDescriptor supportedZipContent, String entryName) {
+        if (!isCandidateZipEntry(entryName)) {
+            return null;
+        }
+        String entryMimetype = getZipEntryMimetype(entryName);
+        return isSupportedZipEntry(supportedZipContent, entryName, entryMimetype) ? entryMimetype : null;
+    }
+
+    protected boolean isCandidateZipEntry(String entryName) {
+        // skip if the entry is a directory or if it's hidden (by convention)
+        return !entryName.endsWith("/") && !entryName.startsWith(".");
+    }
+
+    protected boolean isSupportedZipEntry(MimetypeListDescriptor supportedZipContent, String entryName,
+            String entryMimetype) {
+        String extension = FileUtils.getFileExtension(FileManagerUtils.fetchTitle(entryName));
+        return supportedZipContent.getMimetypes().contains(entryMimetype)
+                || doesMatchExtension(extension, supportedZipContent.getExtensions());
+    }
+
+    /**
+     * @return the mimetype registered for the name extension, null if unknown
+     */
+    protected String getZipEntryMimetype(String entryName) {
+        MimetypeRegistry mimetypeRegistry = Framework.getService(MimetypeRegistry.class);
+        try {
+            return mimetypeRegistry.getMimetypeFromFilename(FileManagerUtils.fetchTitle(entryName));
+        } catch (MimetypeNotFoundException e) {
+            return null;
         }
-        return mimetype;
     }
 
 }
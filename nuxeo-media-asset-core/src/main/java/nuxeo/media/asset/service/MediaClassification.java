@@ -0,0 +1,165 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.service;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+import nuxeo.media.asset.detection.BlobMimetypeDetector;
+import nuxeo.media.asset.detection.ExtensionMimetypeDetector;
+import nuxeo.media.asset.detection.HeaderMimetypeDetector;
+import nuxeo.media.asset.detection.RegistryMimetypeDetector;
+
+/**
+ * The result of the classification of a blob by the {@link MediaAssetService}.
+ */
+public class MediaClassification implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final MediaClassification NONE = new MediaClassification(null, null, Collections.emptyList(),
+            false);
+
+    /**
+     * The mimetype was already set on the blob.
+     */
+    public static final String SOURCE_BLOB = BlobMimetypeDetector.SOURCE;
+
+    /**
+     * The mimetype was looked up from the filename extension, the content was not read.
+     */
+    public static final String SOURCE_EXTENSION = ExtensionMimetypeDetector.SOURCE;
+
+    /**
+     * The mimetype was detected from the leading bytes of the blob.
+     */
+    public static final String SOURCE_HEADER = HeaderMimetypeDetector.SOURCE;
+
+    /**
+     * The mimetype was given by the mimetype registry.
+     */
+    public static final String SOURCE_REGISTRY = RegistryMimetypeDetector.SOURCE;
+
+    /**
+     * The mimetype is the one of an archive entry.
+     */
+    public static final String SOURCE_ARCHIVE = "archive";
+
+    /**
+     * The mimetype was guessed from the filename, the content was not read.
+     */
+    public static final String SOURCE_FILENAME = "filename";
+
+    protected final String mimetype;
+
+    protected final String mediaType;
+
+    protected final List<String> facets;
+
+    protected final boolean supported;
+
+    protected final String archiveEntry;
+
+    protected final String source;
+
+    protected final boolean inconclusive;
+
+    public MediaClassification(String mimetype, String mediaType, List<String> facets, boolean supported) {
+        this(mimetype, mediaType, facets, supported, null, null);
+    }
+
+    public MediaClassification(String mimetype, String mediaType, List<String> facets, boolean supported,
+            String archiveEntry, String source) {
+        this(mimetype, mediaType, facets, supported, archiveEntry, source, false);
+    }
+
+    public MediaClassification(String mimetype, String mediaType, List<String> facets, boolean supported,
+            String archiveEntry, String source, boolean inconclusive) {
+        this.mimetype = mimetype;
+        this.mediaType = mediaType;
+        this.facets = facets;
+        this.supported = supported;
+        this.archiveEntry = archiveEntry;
+        this.source = source;
+        this.inconclusive = inconclusive;
+    }
+
+    /**
+     * @return the detected mimetype, the one of the supported entry for archives, null if unknown
+     */
+    public String getMimetype() {
+        return mimetype;
+    }
+
+    /**
+     * @return the name of the matching media type, null if none
+     */
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * @return the immutable list of facets of the matching media type
+     */
+    public List<String> getFacets() {
+        return facets;
+    }
+
+    /**
+     * @return true if the blob is supported by the service, archives without supported content are not
+     */
+    public boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * @return the path of the archive entry the mimetype was detected from, nested archives separated by
+     *         {@code !/}, null if the blob is not an archive
+     */
+    public String getArchiveEntry() {
+        return archiveEntry;
+    }
+
+    /**
+     * @return how the mimetype was detected, one of the {@code SOURCE_} constants or the source of a contributed
+     *         detector, null if unknown
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return true if the inspection of the archive stopped on a limit or on an unreadable archive, the blob is then
+     *         not supported although a later classification may find supported content
+     */
+    public boolean isInconclusive() {
+        return inconclusive;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s[mimetype=%s, mediaType=%s, facets=%s, supported=%s, archiveEntry=%s, source=%s, inconclusive=%s]",
+                getClass().getSimpleName(), mimetype, mediaType, facets, supported, archiveEntry, source,
+                inconclusive);
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The media facets added to and removed from a document, and whether its stored classification was updated.
+ */
+public class MediaFacetDiff {
+
+    public static final MediaFacetDiff NONE = new MediaFacetDiff(Collections.emptySet(), Collections.emptySet(),
+            false);
+
+    protected final Set<String> added;
+
+    protected final Set<String> removed;
+
+    protected final boolean storedClassificationUpdated;
+
+    protected MediaFacetDiff(Set<String> added, Set<String> removed, boolean storedClassificationUpdated) {
+        this.added = Collections.unmodifiableSet(added);
+        this.removed = Collections.unmodifiableSet(removed);
+        this.storedClassificationUpdated = storedClassificationUpdated;
+    }
+
+    /**
+     * @param mediaFacets all the facets managed by the service
+     * @param current the facets of the document
+     * @param target the facets the document should have
+     * @return the managed facets to add and to remove to get the target facets
+     */
+    public static MediaFacetDiff of(Collection<String> mediaFacets, Set<String> current, Set<String> target) {
+        Set<String> added = new LinkedHashSet<>();
+        Set<String> removed = new LinkedHashSet<>();
+        for (String facet : mediaFacets) {
+            boolean present = current.contains(facet);
+            if (target.contains(facet)) {
+                if (!present) {
+                    added.add(facet);
+                }
+            } else if (present) {
+                removed.add(facet);
+            }
+        }
+        return added.isEmpty() && removed.isEmpty() ? NONE : new MediaFacetDiff(added, removed, false);
+    }
+
+    /**
+     * @return the same diff, with the stored classification updated
+     */
+    public MediaFacetDiff withStoredClassificationUpdated() {
+        return new MediaFacetDiff(added, removed, true);
+    }
+
+    public Set<String> getAdded() {
+        return added;
+    }
+
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return true if the properties of the {@value MediaAssetService#MEDIA_ASSET_SCHEMA} schema changed
+     */
+    public boolean isStoredClassificationUpdated() {
+        return storedClassificationUpdated;
+    }
+
+    /**
+     * @return true if the document is unchanged
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && !storedClassificationUpdated;
+    }
+
+    @Override
+    public String toString() {
+        return "added=" + added + ", removed=" + removed + ", storedClassificationUpdated="
+                + storedClassificationUpdated;
+    }
+
+}
@@ -96,4 +96,8 @@ public class MediaTypeDescriptor implements Serializable {
         return order;
     }
 
+    public void setOrder(Integer order) {
+        this.order = order;
+    }
+
 }
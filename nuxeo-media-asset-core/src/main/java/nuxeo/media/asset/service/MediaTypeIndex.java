@@ -0,0 +1,194 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Immutable lookup structure built from the registered {@link MediaTypeDescriptor}s.
+ * <p>
+ * Descriptors are sorted by order once, disabled ones and the ones without facets are dropped, mimetype patterns are
+ * compiled and literal mimetypes and extensions are indexed in hash maps. The first match by order is the same as the
+ * one returned by a linear scan of the sorted descriptors.
+ * <p>
+ * When built with the automaton matcher, the mimetype patterns of all the types are combined into a single
+ * {@link MimetypeAutomaton} so that the cost of a lookup does not depend on the number of patterns.
+ */
+public class MediaTypeIndex {
+
+    public static final MediaTypeIndex EMPTY = new MediaTypeIndex(Collections.emptyList());
+
+    protected static final String REGEX_META_CHARACTERS = "\\.[]{}()*+?^$|";
+
+    /**
+     * An enabled media type as seen by the index.
+     */
+    public static class Rule {
+
+        protected final int rank;
+
+        protected final String name;
+
+        protected final List<String> facets;
+
+        protected Rule(int rank, MediaTypeDescriptor descriptor) {
+            this.rank = rank;
+            this.name = descriptor.getName();
+            this.facets = Collections.unmodifiableList(new ArrayList<>(descriptor.getFacets()));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getFacets() {
+            return facets;
+        }
+    }
+
+    protected static class CompiledPattern {
+
+        protected final Rule rule;
+
+        protected final Pattern pattern;
+
+        protected CompiledPattern(Rule rule, Pattern pattern) {
+            this.rule = rule;
+            this.pattern = pattern;
+        }
+    }
+
+    protected final List<Rule> rules = new ArrayList<>();
+
+    protected final Map<String, Rule> exactMimetypes = new HashMap<>();
+
+    protected final Map<String, Rule> extensions = new HashMap<>();
+
+    protected final List<CompiledPattern> patterns = new ArrayList<>();
+
+    protected final MimetypeAutomaton automaton;
+
+    public MediaTypeIndex(Collection<MediaTypeDescriptor> descriptors) {
+        this(descriptors, false);
+    }
+
+    /**
+     * @param descriptors the media types
+     * @param useAutomaton whether to match the mimetype patterns with a single {@link MimetypeAutomaton}
+     */
+    public MediaTypeIndex(Collection<MediaTypeDescriptor> descriptors, boolean useAutomaton) {
+        Map<String, Integer> automatonPatterns = new LinkedHashMap<>();
+        List<MediaTypeDescriptor> types = new ArrayList<>(descriptors);
+        types.sort(Comparator.comparingInt(MediaTypeDescriptor::getOrder));
+        for (MediaTypeDescriptor type : types) {
+            // a matching type without facets never stops the lookup, it can be left out
+            if (!type.isEnabled() || type.getFacets().isEmpty()) {
+                continue;
+            }
+            Rule rule = new Rule(rules.size(), type);
+            rules.add(rule);
+            for (String mimetypePattern : type.getMimetypes()) {
+                if (isLiteral(mimetypePattern)) {
+                    exactMimetypes.putIfAbsent(mimetypePattern, rule);
+                } else if (useAutomaton) {
+                    automatonPatterns.putIfAbsent(mimetypePattern, rule.rank);
+                } else {
+                    patterns.add(new CompiledPattern(rule, Pattern.compile(mimetypePattern)));
+                }
+            }
+            for (String extension : type.getExtensions()) {
+                extensions.putIfAbsent(extension.toLowerCase(Locale.ROOT), rule);
+            }
+        }
+        automaton = useAutomaton ? new MimetypeAutomaton(automatonPatterns) : null;
+    }
+
+    /**
+     * @return the enabled rules, sorted by order
+     */
+    public List<Rule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * @param mimetype a file mimetype, may be null
+     * @param extension a file extension, may be null
+     * @return the first rule by order matching the mimetype or the extension, null if none
+     */
+    public Rule match(String mimetype, String extension) {
+        Rule best = null;
+        if (StringUtils.isNotBlank(extension)) {
+            best = extensions.get(extension.toLowerCase(Locale.ROOT));
+        }
+        if (mimetype != null) {
+            best = lowest(best, exactMimetypes.get(mimetype));
+            if (automaton != null) {
+                int rank = automaton.match(mimetype);
+                return rank != MimetypeAutomaton.NO_MATCH ? lowest(best, rules.get(rank)) : best;
+            }
+            for (CompiledPattern compiled : patterns) {
+                if (best != null && best.rank <= compiled.rule.rank) {
+                    // patterns are sorted by rank, nothing better can be found
+                    break;
+                }
+                if (compiled.pattern.matcher(mimetype).matches()) {
+                    best = compiled.rule;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param mimetype a file mimetype, may be null
+     * @param extension a file extension, may be null
+     * @return the immutable list of facets of the first matching rule, an empty list if none
+     */
+    public List<String> getFacets(String mimetype, String extension) {
+        Rule rule = match(mimetype, extension);
+        return rule != null ? rule.getFacets() : Collections.emptyList();
+    }
+
+    protected static Rule lowest(Rule a, Rule b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        }
+        return a.rank <= b.rank ? a : b;
+    }
+
+    protected static boolean isLiteral(String mimetypePattern) {
+        return StringUtils.containsNone(mimetypePattern, REGEX_META_CHARACTERS);
+    }
+
+}
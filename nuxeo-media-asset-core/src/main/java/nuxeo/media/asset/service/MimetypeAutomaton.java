@@ -0,0 +1,560 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a mimetype against many patterns in a single scan.
+ * <p>
+ * All the patterns are compiled into one NFA whose accepting states carry the rank of their pattern. The NFA is
+ * determinized lazily while matching, so a mimetype is read once whatever the number of patterns and the lowest
+ * matching rank is known at the end of the scan. Patterns using constructs the automaton does not handle (anchors,
+ * bounded repetitions, look-arounds, back references, flags...) are kept as {@link Pattern} and only evaluated when
+ * they could beat the automaton result.
+ */
+public class MimetypeAutomaton {
+
+    public static final int NO_MATCH = -1;
+
+    protected static final int MAX_DFA_STATES = 10_000;
+
+    protected static final int ASCII = 128;
+
+    protected interface CharMatcher {
+        boolean matches(char c);
+    }
+
+    protected static class UnsupportedSyntaxException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    protected static class NfaState {
+
+        protected final int id;
+
+        protected CharMatcher matcher;
+
+        protected NfaState out;
+
+        protected final List<NfaState> epsilons = new ArrayList<>(2);
+
+        protected int rank = NO_MATCH;
+
+        protected NfaState(int id) {
+            this.id = id;
+        }
+    }
+
+    protected static class DfaState {
+
+        protected final int[] states;
+
+        protected final int rank;
+
+        protected final AtomicReferenceArray<DfaState> asciiTransitions = new AtomicReferenceArray<>(ASCII);
+
+        protected final Map<Character, DfaState> otherTransitions = new ConcurrentHashMap<>();
+
+        protected DfaState(int[] states, int rank) {
+            this.states = states;
+            this.rank = rank;
+        }
+    }
+
+    protected static class FallbackPattern {
+
+        protected final int rank;
+
+        protected final Pattern pattern;
+
+        protected FallbackPattern(int rank, Pattern pattern) {
+            this.rank = rank;
+            this.pattern = pattern;
+        }
+    }
+
+    protected final List<NfaState> nfa = new ArrayList<>();
+
+    protected final List<FallbackPattern> fallbacks = new ArrayList<>();
+
+    protected final List<FallbackPattern> all = new ArrayList<>();
+
+    protected final Map<IntArrayKey, DfaState> dfa = new ConcurrentHashMap<>();
+
+    protected final DfaState initial;
+
+    /**
+     * @param ranks the patterns with their rank, the lowest rank wins
+     */
+    public MimetypeAutomaton(Map<String, Integer> ranks) {
+        NfaState start = newState();
+        for (Map.Entry<String, Integer> entry : ranks.entrySet()) {
+            String pattern = entry.getKey();
+            int rank = entry.getValue();
+            Pattern compiled = Pattern.compile(pattern);
+            all.add(new FallbackPattern(rank, compiled));
+            try {
+                NfaState accept = newState();
+                accept.rank = rank;
+                start.epsilons.add(new Parser(pattern).parse().compile(this, accept));
+            } catch (UnsupportedSyntaxException e) {
+                fallbacks.add(new FallbackPattern(rank, compiled));
+            }
+        }
+        fallbacks.sort((a, b) -> Integer.compare(a.rank, b.rank));
+        BitSet closure = new BitSet();
+        addClosure(start, closure);
+        initial = intern(closure);
+    }
+
+    /**
+     * @return the number of patterns evaluated with {@link Pattern} instead of the automaton
+     */
+    public int getFallbackCount() {
+        return fallbacks.size();
+    }
+
+    /**
+     * @param input a mimetype
+     * @return the lowest rank of the patterns fully matching the input, {@link #NO_MATCH} if none
+     */
+    public int match(String input) {
+        int rank = NO_MATCH;
+        DfaState current = initial;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (Character.isSurrogate(c)) {
+                // the automaton works on chars, let java.util.regex deal with code points
+                return matchWithRegex(input, all, Integer.MAX_VALUE);
+            }
+            current = step(current, c);
+            if (current.states.length == 0) {
+                break;
+            }
+        }
+        if (current.states.length > 0 && current.rank != NO_MATCH) {
+            rank = current.rank;
+        }
+        int fallbackRank = matchWithRegex(input, fallbacks, rank == NO_MATCH ? Integer.MAX_VALUE : rank);
+        return fallbackRank != NO_MATCH ? fallbackRank : rank;
+    }
+
+    protected static int matchWithRegex(String input, List<FallbackPattern> patterns, int bound) {
+        int best = NO_MATCH;
+        for (FallbackPattern fallback : patterns) {
+            if (fallback.rank >= bound || (best != NO_MATCH && fallback.rank >= best)) {
+                continue;
+            }
+            if (fallback.pattern.matcher(input).matches()) {
+                best = fallback.rank;
+            }
+        }
+        return best;
+    }
+
+    protected DfaState step(DfaState current, char c) {
+        DfaState next = c < ASCII ? current.asciiTransitions.get(c) : current.otherTransitions.get(c);
+        if (next != null) {
+            return next;
+        }
+        BitSet closure = new BitSet();
+        for (int id : current.states) {
+            NfaState state = nfa.get(id);
+            if (state.matcher != null && state.matcher.matches(c)) {
+                addClosure(state.out, closure);
+            }
+        }
+        next = intern(closure);
+        if (dfa.size() < MAX_DFA_STATES) {
+            if (c < ASCII) {
+                current.asciiTransitions.set(c, next);
+            } else {
+                current.otherTransitions.put(c, next);
+            }
+        }
+        return next;
+    }
+
+    protected DfaState intern(BitSet closure) {
+        int[] states = closure.stream().filter(id -> {
+            NfaState state = nfa.get(id);
+            return state.matcher != null || state.rank != NO_MATCH;
+        }).toArray();
+        IntArrayKey key = new IntArrayKey(states);
+        DfaState state = dfa.get(key);
+        if (state == null) {
+            int rank = NO_MATCH;
+            for (int id : states) {
+                int stateRank = nfa.get(id).rank;
+                if (stateRank != NO_MATCH && (rank == NO_MATCH || stateRank < rank)) {
+                    rank = stateRank;
+                }
+            }
+            state = new DfaState(states, rank);
+            if (dfa.size() < MAX_DFA_STATES) {
+                DfaState existing = dfa.putIfAbsent(key, state);
+                if (existing != null) {
+                    state = existing;
+                }
+            }
+        }
+        return state;
+    }
+
+    protected void addClosure(NfaState state, BitSet closure) {
+        if (closure.get(state.id)) {
+            return;
+        }
+        closure.set(state.id);
+        for (NfaState epsilon : state.epsilons) {
+            addClosure(epsilon, closure);
+        }
+    }
+
+    protected NfaState newState() {
+        NfaState state = new NfaState(nfa.size());
+        nfa.add(state);
+        return state;
+    }
+
+    protected static class IntArrayKey {
+
+        protected final int[] values;
+
+        protected final int hash;
+
+        protected IntArrayKey(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof IntArrayKey && Arrays.equals(values, ((IntArrayKey) obj).values);
+        }
+    }
+
+    /**
+     * A regular expression syntax tree, compiled into NFA states by continuation.
+     */
+    protected abstract static class Node {
+
+        /**
+         * @return the entry state of this node, leading to {@code next} once matched
+         */
+        protected abstract NfaState compile(MimetypeAutomaton automaton, NfaState next);
+    }
+
+    protected static class CharNode extends Node {
+
+        protected final CharMatcher matcher;
+
+        protected CharNode(CharMatcher matcher) {
+            this.matcher = matcher;
+        }
+
+        @Override
+        protected NfaState compile(MimetypeAutomaton automaton, NfaState next) {
+            NfaState state = automaton.newState();
+            state.matcher = matcher;
+            state.out = next;
+            return state;
+        }
+    }
+
+    protected static class ConcatNode extends Node {
+
+        protected final List<Node> children;
+
+        protected ConcatNode(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        protected NfaState compile(MimetypeAutomaton automaton, NfaState next) {
+            NfaState state = next;
+            for (int i = children.size() - 1; i >= 0; i--) {
+                state = children.get(i).compile(automaton, state);
+            }
+            return state;
+        }
+    }
+
+    protected static class AlternationNode extends Node {
+
+        protected final List<Node> children;
+
+        protected AlternationNode(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        protected NfaState compile(MimetypeAutomaton automaton, NfaState next) {
+            NfaState split = automaton.newState();
+            for (Node child : children) {
+                split.epsilons.add(child.compile(automaton, next));
+            }
+            return split;
+        }
+    }
+
+    protected static class RepeatNode extends Node {
+
+        protected final Node child;
+
+        protected final char quantifier;
+
+        protected RepeatNode(Node child, char quantifier) {
+            this.child = child;
+            this.quantifier = quantifier;
+        }
+
+        @Override
+        protected NfaState compile(MimetypeAutomaton automaton, NfaState next) {
+            NfaState split = automaton.newState();
+            switch (quantifier) {
+            case '?':
+                split.epsilons.add(child.compile(automaton, next));
+                split.epsilons.add(next);
+                return split;
+            case '*':
+                split.epsilons.add(child.compile(automaton, split));
+                split.epsilons.add(next);
+                return split;
+            default: // '+'
+                NfaState first = child.compile(automaton, split);
+                split.epsilons.add(first);
+                split.epsilons.add(next);
+                return first;
+            }
+        }
+    }
+
+    /**
+     * Recursive descent parser for the subset of the {@link Pattern} syntax supported by the automaton.
+     */
+    protected static class Parser {
+
+        protected final String pattern;
+
+        protected int pos;
+
+        protected Parser(String pattern) {
+            this.pattern = pattern;
+        }
+
+        protected Node parse() throws UnsupportedSyntaxException {
+            Node node = parseAlternation();
+            if (pos != pattern.length()) {
+                throw new UnsupportedSyntaxException();
+            }
+            return node;
+        }
+
+        protected Node parseAlternation() throws UnsupportedSyntaxException {
+            List<Node> alternatives = new ArrayList<>();
+            alternatives.add(parseConcat());
+            while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+                pos++;
+                alternatives.add(parseConcat());
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new AlternationNode(alternatives);
+        }
+
+        protected Node parseConcat() throws UnsupportedSyntaxException {
+            List<Node> nodes = new ArrayList<>();
+            while (pos < pattern.length() && pattern.charAt(pos) != '|' && pattern.charAt(pos) != ')') {
+                nodes.add(parseRepeat());
+            }
+            return new ConcatNode(nodes);
+        }
+
+        protected Node parseRepeat() throws UnsupportedSyntaxException {
+            Node atom = parseAtom();
+            if (pos < pattern.length()) {
+                char c = pattern.charAt(pos);
+                if (c == '{') {
+                    throw new UnsupportedSyntaxException();
+                }
+                if (c == '*' || c == '+' || c == '?') {
+                    pos++;
+                    if (pos < pattern.length()) {
+                        char mode = pattern.charAt(pos);
+                        if (mode == '?') {
+                            // reluctant quantifiers match the same full strings
+                            pos++;
+                        } else if (mode == '+' || mode == '*' || mode == '{') {
+                            throw new UnsupportedSyntaxException();
+                        }
+                    }
+                    return new RepeatNode(atom, c);
+                }
+            }
+            return atom;
+        }
+
+        protected Node parseAtom() throws UnsupportedSyntaxException {
+            char c = pattern.charAt(pos++);
+            switch (c) {
+            case '(':
+                if (pattern.startsWith("?:", pos)) {
+                    pos += 2;
+                } else if (pattern.startsWith("?", pos)) {
+                    throw new UnsupportedSyntaxException();
+                }
+                Node group = parseAlternation();
+                if (pos >= pattern.length() || pattern.charAt(pos) != ')') {
+                    throw new UnsupportedSyntaxException();
+                }
+                pos++;
+                return group;
+            case '[':
+                return new CharNode(parseClass());
+            case '.':
+                return new CharNode(ch -> !isLineTerminator(ch));
+            case '\\':
+                return new CharNode(parseEscape());
+            case '^':
+            case '$':
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+            case ')':
+                throw new UnsupportedSyntaxException();
+            default:
+                return new CharNode(ch -> ch == c);
+            }
+        }
+
+        protected CharMatcher parseEscape() throws UnsupportedSyntaxException {
+            if (pos >= pattern.length()) {
+                throw new UnsupportedSyntaxException();
+            }
+            char c = pattern.charAt(pos++);
+            switch (c) {
+            case 'd':
+                return ch -> ch >= '0' && ch <= '9';
+            case 'D':
+                return ch -> !(ch >= '0' && ch <= '9');
+            case 'w':
+                return MimetypeAutomaton::isWordChar;
+            case 'W':
+                return ch -> !isWordChar(ch);
+            case 's':
+                return MimetypeAutomaton::isSpace;
+            case 'S':
+                return ch -> !isSpace(ch);
+            case 't':
+                return ch -> ch == '\t';
+            case 'n':
+                return ch -> ch == '\n';
+            case 'r':
+                return ch -> ch == '\r';
+            case 'f':
+                return ch -> ch == '\f';
+            default:
+                if (Character.isLetterOrDigit(c)) {
+                    throw new UnsupportedSyntaxException();
+                }
+                return ch -> ch == c;
+            }
+        }
+
+        protected CharMatcher parseClass() throws UnsupportedSyntaxException {
+            boolean negated = pos < pattern.length() && pattern.charAt(pos) == '^';
+            if (negated) {
+                pos++;
+            }
+            List<CharMatcher> items = new ArrayList<>();
+            boolean first = true;
+            while (true) {
+                if (pos >= pattern.length()) {
+                    throw new UnsupportedSyntaxException();
+                }
+                char c = pattern.charAt(pos++);
+                if (c == ']' && !first) {
+                    break;
+                }
+                first = false;
+                if (c == '[' || c == ']' || (c == '&' && pattern.startsWith("&", pos))) {
+                    throw new UnsupportedSyntaxException();
+                }
+                if (c == '\\') {
+                    if (pos < pattern.length() && Character.isLetterOrDigit(pattern.charAt(pos))) {
+                        items.add(parseEscape());
+                        continue;
+                    }
+                    c = pattern.charAt(pos++);
+                }
+                if (pos + 1 < pattern.length() && pattern.charAt(pos) == '-' && pattern.charAt(pos + 1) != ']') {
+                    char end = pattern.charAt(pos + 1);
+                    if (end == '\\' || end == '[') {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    pos += 2;
+                    char start = c;
+                    if (end < start) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    items.add(ch -> ch >= start && ch <= end);
+                } else {
+                    char literal = c;
+                    items.add(ch -> ch == literal);
+                }
+            }
+            return ch -> {
+                for (CharMatcher item : items) {
+                    if (item.matches(ch)) {
+                        return !negated;
+                    }
+                }
+                return negated;
+            };
+        }
+    }
+
+    protected static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    protected static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    protected static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+}
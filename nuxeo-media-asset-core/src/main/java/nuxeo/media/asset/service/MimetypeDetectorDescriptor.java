@@ -0,0 +1,85 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.service;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+import nuxeo.media.asset.detection.DetectionCost;
+import nuxeo.media.asset.detection.MimetypeDetector;
+
+@XObject("detector")
+public class MimetypeDetectorDescriptor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @XNode("@name")
+    protected String name;
+
+    @XNode("@class")
+    protected Class<? extends MimetypeDetector> klass;
+
+    @XNode("@cost")
+    protected String cost = DetectionCost.CONTENT.name();
+
+    @XNode("@order")
+    protected int order = 0;
+
+    @XNode("@enabled")
+    boolean enabled = true;
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the cost class of the detector, the detectors are asked from the cheapest to the most expensive
+     */
+    public DetectionCost getCost() {
+        try {
+            return DetectionCost.valueOf(cost.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new NuxeoException("Unknown cost " + cost + " for mimetype detector " + name, e);
+        }
+    }
+
+    /**
+     * @return the order of the detector among the detectors of the same cost
+     */
+    public int getOrder() {
+        return order;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public MimetypeDetector newInstance() {
+        try {
+            return klass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new NuxeoException("Cannot instantiate mimetype detector " + name, e);
+        }
+    }
+}
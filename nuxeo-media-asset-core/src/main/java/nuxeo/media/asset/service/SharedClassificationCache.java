@@ -0,0 +1,127 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.service;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.runtime.kv.KeyValueStore;
+
+/**
+ * Second level cache of the classifications, shared by the nodes of a cluster through a {@link KeyValueStore}.
+ * <p>
+ * The entries are keyed by the {@link MediaAssetRegistry#getVersion() version} of the rules along with the blob digest
+ * and extension, so that nodes deploying other contributions never see each other's results. Only the detected
+ * mimetype, the media type name and how they were found are stored, the facets are those of the media type in the
+ * current registry. The store being unavailable only makes the classification slower.
+ */
+public class SharedClassificationCache {
+
+    private static final Logger log = LogManager.getLogger(SharedClassificationCache.class);
+
+    public static final String KEY_PREFIX = "mediaasset:";
+
+    protected static final char SEPARATOR = '&';
+
+    protected final KeyValueStore store;
+
+    protected final long ttl;
+
+    /**
+     * @param store the key/value store holding the classifications
+     * @param ttl the time to live of the entries in seconds, 0 for none
+     */
+    public SharedClassificationCache(KeyValueStore store, long ttl) {
+        this.store = store;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param registry the rules the classification must have been computed with
+     * @param key the digest and extension key of the blob
+     * @return the shared classification, null if none
+     */
+    public MediaClassification get(MediaAssetRegistry registry, String key) {
+        try {
+            String value = store.getString(getStoreKey(registry, key));
+            return value != null ? decode(registry, value) : null;
+        } catch (RuntimeException e) {
+            log.warn("Cannot read the shared classification of {}", key, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param registry the rules the classification was computed with
+     * @param key the digest and extension key of the blob
+     * @param classification the classification of the blob
+     */
+    public void put(MediaAssetRegistry registry, String key, MediaClassification classification) {
+        try {
+            store.put(getStoreKey(registry, key), encode(classification), ttl);
+        } catch (RuntimeException e) {
+            log.warn("Cannot share the classification of {}", key, e);
+        }
+    }
+
+    protected String getStoreKey(MediaAssetRegistry registry, String key) {
+        return KEY_PREFIX + registry.getVersion() + ':' + key;
+    }
+
+    protected static String encode(MediaClassification classification) {
+        return String.join(String.valueOf(SEPARATOR), encode(classification.getMimetype()),
+                encode(classification.getMediaType()), String.valueOf(classification.isSupported()),
+                encode(classification.getArchiveEntry()), encode(classification.getSource()));
+    }
+
+    /**
+     * @return the classification, null if the value is invalid or its media type is unknown
+     */
+    protected static MediaClassification decode(MediaAssetRegistry registry, String value) {
+        String[] fields = StringUtils.splitPreserveAllTokens(value, SEPARATOR);
+        if (fields.length != 5) {
+            return null;
+        }
+        String mediaType = decode(fields[1]);
+        MediaTypeDescriptor descriptor = mediaType != null ? registry.getMediaTypes().get(mediaType) : null;
+        if (mediaType != null && descriptor == null) {
+            return null;
+        }
+        return new MediaClassification(decode(fields[0]), mediaType,
+                descriptor != null ? Collections.unmodifiableList(new ArrayList<>(descriptor.getFacets()))
+                        : MediaClassification.NONE.getFacets(),
+                Boolean.parseBoolean(fields[2]), decode(fields[3]), decode(fields[4]));
+    }
+
+    protected static String encode(String field) {
+        return field != null ? URLEncoder.encode(field, StandardCharsets.UTF_8) : "";
+    }
+
+    protected static String decode(String field) {
+        return field.isEmpty() ? null : URLDecoder.decode(field, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.work;
+
+import java.util.Objects;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.VersioningOption;
+import org.nuxeo.ecm.core.api.versioning.VersioningService;
+import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.runtime.api.Framework;
+
+import nuxeo.media.asset.listener.MediaAssetListener;
+import nuxeo.media.asset.service.MediaAssetService;
+import nuxeo.media.asset.service.MediaFacetDiff;
+
+/**
+ * Classifies the content of a document after the transaction that created or updated it, used for the blobs too large
+ * to be classified synchronously.
+ * <p>
+ * Nothing is done if the document was deleted or if its content changed since the work was scheduled, the change that
+ * replaced the content scheduled its own classification, replacing this work if it was still queued. The facets are
+ * saved as a technical change, without updating the modification date, logging an audit entry or creating a version.
+ */
+public class MediaClassificationWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LogManager.getLogger(MediaClassificationWork.class);
+
+    public static final String CATEGORY = "mediaAssetClassification";
+
+    protected final String digest;
+
+    protected final String filename;
+
+    protected final long length;
+
+    /**
+     * @param blob the content to classify, as seen when the work is scheduled
+     */
+    public MediaClassificationWork(String repositoryName, String docId, Blob blob) {
+        super(CATEGORY + ":" + repositoryName + ":" + docId);
+        setDocument(repositoryName, docId);
+        this.digest = blob.getDigest();
+        this.filename = blob.getFilename();
+        this.length = blob.getLength();
+    }
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public String getTitle() {
+        return "Media asset classification: " + docId;
+    }
+
+    @Override
+    public int getRetryCount() {
+        // concurrent updates of the document
+        return 2;
+    }
+
+    @Override
+    public void work() {
+        openSystemSession();
+        DocumentRef ref = new IdRef(docId);
+        if (!session.exists(ref)) {
+            log.debug("Document {} was deleted, skipping its classification", docId);
+            return;
+        }
+        DocumentModel doc = session.getDocument(ref);
+        Blob blob = doc.hasSchema("file") ? (Blob) doc.getPropertyValue("file:content") : null;
+        if (blob == null || !isSameContent(blob)) {
+            log.debug("Content of document {} changed, skipping its classification", docId);
+            return;
+        }
+        MediaAssetService mediaAssetService = Framework.getService(MediaAssetService.class);
+        if (!mediaAssetService.isDocumentSupported(doc)) {
+            return;
+        }
+        MediaFacetDiff diff = mediaAssetService.applyMediaFacets(doc, mediaAssetService.classify(blob));
+        if (!diff.isEmpty()) {
+            log.debug("Updating the facets of document {}: {}", docId, diff);
+            // a technical change: no modification date, audit entry or version
+            doc.putContextData(MediaAssetListener.DISABLE_DUBLINCORE_LISTENER, Boolean.TRUE);
+            doc.putContextData(MediaAssetListener.DISABLE_AUDIT_LOGGER, Boolean.TRUE);
+            doc.putContextData(VersioningService.VERSIONING_OPTION, VersioningOption.NONE);
+            session.saveDocument(doc);
+        }
+    }
+
+    /**
+     * Compares the blob with the one seen when the work was scheduled, like {@code BlobClassification}. A blob not
+     * stored yet when the work was scheduled has no digest, only its filename and length are compared then.
+     */
+    protected boolean isSameContent(Blob blob) {
+        return (digest == null || digest.equals(blob.getDigest())) && Objects.equals(filename, blob.getFilename())
+                && length == blob.getLength();
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.junit.Assert;
+import org.junit.Test;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+
+import nuxeo.media.asset.test.utils.SampleContent;
+
+public class TestArchiveInspectors {
+
+    protected static final String OBJ_MIMETYPE = "text/wavefront-obj";
+
+    protected final ArchiveInspector zip = new ZipArchiveInspector();
+
+    protected final ArchiveInspector tar = new TarArchiveInspector();
+
+    protected final ArchiveInspector tarGz = new GzipTarArchiveInspector();
+
+    @Test
+    public void testFixtures() throws IOException {
+        Assert.assertEquals(OBJ_MIMETYPE, zip.inspect(fileBlob(SampleContent.ZIP_3D_PATH), inspection(0)));
+        Assert.assertEquals(OBJ_MIMETYPE, tar.inspect(fileBlob(SampleContent.TAR_3D_PATH), inspection(0)));
+        Assert.assertEquals(OBJ_MIMETYPE, tarGz.inspect(fileBlob(SampleContent.TGZ_3D_PATH), inspection(0)));
+        Assert.assertNull(zip.inspect(fileBlob(SampleContent.ZIP_PATH), inspection(0)));
+    }
+
+    @Test
+    public void testNestedArchive() throws IOException {
+        Blob nested = fileBlob(SampleContent.NESTED_ZIP_3D_PATH);
+        Assert.assertNull(zip.inspect(nested, inspection(0)));
+        ArchiveInspection inspection = inspection(1);
+        Assert.assertEquals(OBJ_MIMETYPE, zip.inspect(nested, inspection));
+        // readme.txt and package/suzanne.zip, then suzanne.obj
+        Assert.assertEquals(3, inspection.getEntries());
+
+        // without central directory
+        Blob streamed = Blobs.createBlob(nested.getByteArray());
+        Assert.assertEquals(OBJ_MIMETYPE, zip.inspect(streamed.getStream(), inspection(1)));
+    }
+
+    @Test
+    public void testEntriesAreCountedOnceOnFallback() throws IOException {
+        byte[] bytes = zipWithTextEntries(5);
+        // corrupt the third central directory entry, the first two are visited before the failure
+        int cen = -1;
+        for (int i = 0; i < 3; i++) {
+            cen = indexOf(bytes, new byte[] { 'P', 'K', 1, 2 }, cen + 1);
+        }
+        bytes[cen + 3] = 0;
+        Path file = Files.createTempFile("corrupted-", ".zip");
+        try {
+            Files.write(file, bytes);
+            ArchiveInspection inspection = new ArchiveInspection(this::match, n -> null, 6, 100_000, 0);
+            Assert.assertEquals(OBJ_MIMETYPE, zip.inspect(Blobs.createBlob(file.toFile()), inspection));
+            Assert.assertEquals(6, inspection.getEntries());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testEntryLimit() throws IOException {
+        Blob blob = Blobs.createBlob(zipWithTextEntries(10));
+        Assert.assertEquals(OBJ_MIMETYPE, zip.inspect(blob, new ArchiveInspection(this::match, n -> null, 11, 100_000, 0)));
+        try {
+            zip.inspect(blob, new ArchiveInspection(this::match, n -> null, 10, 100_000, 0));
+            Assert.fail("The entry limit is exceeded");
+        } catch (ArchiveLimitException e) {
+            Assert.assertEquals(ArchiveLimitException.LIMIT_ENTRIES, e.getLimit());
+        }
+    }
+
+    @Test
+    public void testByteLimit() throws IOException {
+        Blob blob = Blobs.createBlob(tarGzWithPadding(1_000_000));
+        Assert.assertEquals(OBJ_MIMETYPE,
+                tarGz.inspect(blob, new ArchiveInspection(this::match, n -> null, 100, 10_000_000, 0)));
+        try {
+            // the archive is way smaller than the limit, not its decompressed content
+            tarGz.inspect(blob, new ArchiveInspection(this::match, n -> null, 100, 100 * blob.getLength(), 0));
+            Assert.fail("The byte limit is exceeded");
+        } catch (ArchiveLimitException e) {
+            Assert.assertEquals(ArchiveLimitException.LIMIT_BYTES, e.getLimit());
+        }
+    }
+
+    @Test
+    public void testTimeLimit() throws Exception {
+        Blob blob = Blobs.createBlob(zipWithTextEntries(10));
+        Assert.assertEquals(OBJ_MIMETYPE, zip.inspect(blob,
+                new ArchiveInspection(this::match, n -> null, 100, 100_000, 0, Duration.ofMinutes(1))));
+        ArchiveInspection inspection = new ArchiveInspection(this::match, n -> null, 100, 100_000, 0,
+                Duration.ofMillis(1));
+        Thread.sleep(10);
+        try {
+            zip.inspect(blob, inspection);
+            Assert.fail("The time limit is exceeded");
+        } catch (ArchiveLimitException e) {
+            Assert.assertEquals(ArchiveLimitException.LIMIT_TIME, e.getLimit());
+        }
+    }
+
+    @Test
+    public void testTarLinksAreNotMatched() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(bytes)) {
+            TarArchiveEntry link = new TarArchiveEntry("model.obj", TarConstants.LF_SYMLINK);
+            link.setLinkName("/etc/passwd");
+            out.putArchiveEntry(link);
+            out.closeArchiveEntry();
+        }
+        ArchiveInspection inspection = inspection(0);
+        Assert.assertNull(tar.inspect(Blobs.createBlob(bytes.toByteArray()), inspection));
+        Assert.assertNull(inspection.getMatchedEntry());
+        Assert.assertNull(inspection.getMatchedMimetype());
+        // links still count against the entry limit
+        Assert.assertEquals(1, inspection.getEntries());
+    }
+
+    @Test
+    public void testGzipThatIsNotATarIsReleased() throws IOException {
+        ArchiveInspection inspection = inspection(0);
+        Assert.assertNull(tarGz.inspect(Blobs.createBlob(gzip("v 0 0 0".getBytes(StandardCharsets.UTF_8))),
+                inspection));
+        Assert.assertFalse(inspection.isClaimed());
+        Assert.assertFalse(inspection.isInconclusive());
+
+        // a supported tar.gz is claimed
+        inspection = inspection(0);
+        Assert.assertEquals(OBJ_MIMETYPE, tarGz.inspect(fileBlob(SampleContent.TGZ_3D_PATH), inspection));
+        Assert.assertTrue(inspection.isClaimed());
+    }
+
+    @Test
+    public void testTarGzWithoutSupportedEntryIsReleased() throws IOException {
+        ArchiveInspection inspection = inspection(0);
+        Assert.assertNull(tarGz.inspect(Blobs.createBlob(gzip(tarWithTextEntry())), inspection));
+        Assert.assertFalse(inspection.isClaimed());
+        Assert.assertEquals(1, inspection.getEntries());
+
+        // a plain tar is not released
+        inspection = inspection(0);
+        Assert.assertNull(tar.inspect(Blobs.createBlob(tarWithTextEntry()), inspection));
+        Assert.assertTrue(inspection.isClaimed());
+    }
+
+    protected ArchiveInspection inspection(int maxDepth) {
+        return new ArchiveInspection(this::match, name -> name.endsWith(".zip") ? zip : null, 100, 10_000_000,
+                maxDepth);
+    }
+
+    protected String match(String name) {
+        return name.endsWith(".obj") ? OBJ_MIMETYPE : null;
+    }
+
+    protected static int indexOf(byte[] bytes, byte[] pattern, int from) {
+        for (int i = from; i <= bytes.length - pattern.length; i++) {
+            if (Arrays.equals(bytes, i, i + pattern.length, pattern, 0, pattern.length)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Pattern not found");
+    }
+
+    protected static Blob fileBlob(String path) throws IOException {
+        return Blobs.createBlob(FileUtils.getResourceFileFromContext(path));
+    }
+
+    /**
+     * @return a zip of text entries followed by an obj entry
+     */
+    protected static byte[] zipWithTextEntries(int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < count; i++) {
+                out.putNextEntry(new ZipEntry("file-" + i + ".txt"));
+                out.write(("text " + i).getBytes(StandardCharsets.UTF_8));
+            }
+            out.putNextEntry(new ZipEntry("model.obj"));
+            out.write("v 0 0 0".getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return a tar holding a single text entry
+     */
+    protected static byte[] tarWithTextEntry() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(bytes)) {
+            byte[] text = "text".getBytes(StandardCharsets.UTF_8);
+            TarArchiveEntry entry = new TarArchiveEntry("readme.txt");
+            entry.setSize(text.length);
+            out.putArchiveEntry(entry);
+            out.write(text);
+            out.closeArchiveEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    protected static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return a gzipped tar with a large entry of zeros followed by an obj entry
+     */
+    protected static byte[] tarGzWithPadding(int size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(new GZIPOutputStream(bytes))) {
+            TarArchiveEntry padding = new TarArchiveEntry("padding.bin");
+            padding.setSize(size);
+            out.putArchiveEntry(padding);
+            out.write(new byte[size]);
+            out.closeArchiveEntry();
+            byte[] model = "v 0 0 0".getBytes(StandardCharsets.UTF_8);
+            TarArchiveEntry obj = new TarArchiveEntry("model.obj");
+            obj.setSize(model.length);
+            out.putArchiveEntry(obj);
+            out.write(model);
+            out.closeArchiveEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+}
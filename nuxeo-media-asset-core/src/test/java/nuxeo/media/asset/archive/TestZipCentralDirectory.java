@@ -0,0 +1,201 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nuxeo.common.utils.FileUtils;
+
+import nuxeo.media.asset.test.utils.SampleContent;
+
+public class TestZipCentralDirectory {
+
+    @Test
+    public void testReadFixture() throws IOException {
+        File file = FileUtils.getResourceFileFromContext(SampleContent.ZIP_3D_PATH);
+        try (RangeReader reader = new RangeReader.FileRangeReader(file)) {
+            Assert.assertEquals(Arrays.asList("suzanne.obj"), readNames(reader));
+        }
+    }
+
+    @Test
+    public void testSameNamesAsStreaming() throws IOException {
+        byte[] zip = syntheticZip(2000, 0, null);
+        try (RangeReader reader = new BytesRangeReader(zip)) {
+            Assert.assertEquals(streamNames(zip), readNames(reader));
+        }
+    }
+
+    @Test
+    public void testOnlyTailIsRead() throws IOException {
+        // a large incompressible entry comes first, only the directory at the end should be read
+        byte[] zip = syntheticZip(10, 4 * 1024 * 1024, "archive comment");
+        CountingReader reader = new CountingReader(zip);
+        List<String> names = readNames(reader);
+        Assert.assertEquals(11, names.size());
+        Assert.assertEquals("textures/big.bin", names.get(0));
+        Assert.assertTrue(reader.bytesRead < 128 * 1024);
+    }
+
+    @Test
+    public void testStopsWhenVisitorReturnsFalse() throws IOException {
+        byte[] zip = syntheticZip(100, 0, null);
+        List<String> names = new ArrayList<>();
+        try (RangeReader reader = new BytesRangeReader(zip)) {
+            ZipCentralDirectory.visitEntryNames(reader, ZipCentralDirectory.DEFAULT_MAX_CENTRAL_DIRECTORY_SIZE,
+                    name -> names.add(name) && names.size() < 3);
+        }
+        Assert.assertEquals(3, names.size());
+    }
+
+    @Test
+    public void testPrependedData() throws IOException {
+        byte[] zip = syntheticZip(5, 0, null);
+        byte[] prefixed = new byte[zip.length + 1000];
+        System.arraycopy(zip, 0, prefixed, 1000, zip.length);
+        try (RangeReader reader = new BytesRangeReader(prefixed)) {
+            Assert.assertEquals(streamNames(zip), readNames(reader));
+        }
+    }
+
+    @Test(expected = ZipException.class)
+    public void testNotAZip() throws IOException {
+        File file = FileUtils.getResourceFileFromContext(SampleContent.PDF_PATH);
+        try (RangeReader reader = new RangeReader.FileRangeReader(file)) {
+            readNames(reader);
+        }
+    }
+
+    @Test(expected = ZipException.class)
+    public void testTooLargeDirectory() throws IOException {
+        byte[] zip = syntheticZip(100, 0, null);
+        try (RangeReader reader = new BytesRangeReader(zip)) {
+            ZipCentralDirectory.visitEntryNames(reader, 100, name -> true);
+        }
+    }
+
+    protected static List<String> readNames(RangeReader reader) throws IOException {
+        List<String> names = new ArrayList<>();
+        ZipCentralDirectory.visitEntryNames(reader, ZipCentralDirectory.DEFAULT_MAX_CENTRAL_DIRECTORY_SIZE,
+                names::add);
+        return names;
+    }
+
+    protected static List<String> streamNames(byte[] zip) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream stream = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = stream.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @param entries the number of small entries
+     * @param bigEntrySize the size of a random first entry, none if 0
+     * @param comment the archive comment
+     */
+    public static byte[] syntheticZip(int entries, int bigEntrySize, String comment) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            if (bigEntrySize > 0) {
+                byte[] data = new byte[bigEntrySize];
+                new Random(0).nextBytes(data);
+                zip.putNextEntry(new ZipEntry("textures/big.bin"));
+                zip.write(data);
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry("models/"));
+            zip.closeEntry();
+            for (int i = 1; i < Math.max(entries, 1); i++) {
+                zip.putNextEntry(new ZipEntry("models/part-" + i + (i % 2 == 0 ? ".obj" : ".mtl")));
+                zip.write(("entry " + i).getBytes());
+                zip.closeEntry();
+            }
+            if (comment != null) {
+                zip.setComment(comment);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads ranges of an array, like a blob provider supporting byte ranges.
+     */
+    protected static class BytesRangeReader implements RangeReader {
+
+        protected final byte[] bytes;
+
+        protected BytesRangeReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long length() {
+            return bytes.length;
+        }
+
+        @Override
+        public ByteBuffer read(long offset, int length) throws IOException {
+            if (offset + length > bytes.length) {
+                throw new EOFException();
+            }
+            return ByteBuffer.wrap(Arrays.copyOfRange(bytes, (int) offset, (int) offset + length));
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+
+    protected static class CountingReader extends BytesRangeReader {
+
+        protected long bytesRead;
+
+        protected CountingReader(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public ByteBuffer read(long offset, int length) throws IOException {
+            bytesRead += length;
+            return super.read(offset, length);
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.batch;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.inject.Inject;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.automation.server.jaxrs.batch.Batch;
+import org.nuxeo.ecm.automation.server.jaxrs.batch.BatchManager;
+import org.nuxeo.ecm.automation.server.jaxrs.batch.handler.BatchFileInfo;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.test.DefaultRepositoryInit;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import nuxeo.media.asset.service.MediaAssetService;
+import nuxeo.media.asset.service.MediaAssetServiceImpl;
+import nuxeo.media.asset.service.MediaClassification;
+import nuxeo.media.asset.test.features.MediaAssetTestFeature;
+import nuxeo.media.asset.test.utils.SampleContent;
+import nuxeo.media.asset.test.utils.TestContentBuilder;
+
+@RunWith(FeaturesRunner.class)
+@Features(MediaAssetTestFeature.class)
+@Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+@Deploy("nuxeo.media.asset.core:test-media-asset-async.xml")
+@RepositoryConfig(init = DefaultRepositoryInit.class, cleanup = Granularity.METHOD)
+public class TestMediaAssetBatchHandler {
+
+    protected static final String TEST_DOC_TYPE = "FileWithAsset";
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected BatchManager batchManager;
+
+    @Inject
+    protected MediaAssetService mediaAssetService;
+
+    @Test
+    public void testClassifiedOnUploadCompletion() throws IOException {
+        MediaAssetBatchHandler handler = (MediaAssetBatchHandler) batchManager.getHandler(MediaAssetBatchHandler.NAME);
+        Batch batch = handler.newBatch(null);
+        File file = FileUtils.getResourceFileFromContext(SampleContent.ZIP_3D_PATH);
+        batch.addFile("0", Blobs.createBlob(file), file.getName(), "application/zip");
+        Blob uploaded = batch.getBlob("0");
+        Assert.assertNull(mediaAssetService.getCachedClassification(uploaded));
+
+        Assert.assertTrue(handler.completeUpload(batch.getKey(), "0",
+                new BatchFileInfo(null, file.getName(), "application/zip", file.length(), null)));
+        MediaClassification classification = handler.getClassification(uploaded);
+        Assert.assertNotNull(classification);
+        Assert.assertEquals("ThreeD", classification.getMediaType());
+        Assert.assertNotNull(mediaAssetService.getCachedClassification(uploaded));
+
+        // as if created on another node: the classification is found in the batch store, not in the local cache
+        ((MediaAssetServiceImpl) mediaAssetService).invalidateCache();
+        Assert.assertNull(mediaAssetService.getCachedClassification(uploaded));
+
+        // the content is above the async threshold, the classification done on upload is applied at creation
+        DocumentModel doc = TestContentBuilder.newInstance(session)
+                                              .setType(TEST_DOC_TYPE)
+                                              .setBlob(batch.getBlob("0"))
+                                              .build();
+        Assert.assertTrue(doc.hasFacet("ThreeD"));
+    }
+
+}
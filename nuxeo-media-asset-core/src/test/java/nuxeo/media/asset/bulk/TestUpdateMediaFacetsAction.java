@@ -0,0 +1,134 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.bulk;
+
+import static nuxeo.media.asset.bulk.UpdateMediaFacetsAction.ACTION_NAME;
+import static nuxeo.media.asset.bulk.UpdateMediaFacetsAction.PARAM_DRY_RUN;
+import static nuxeo.media.asset.bulk.UpdateMediaFacetsAction.RESULT_ADDED_PREFIX;
+import static nuxeo.media.asset.bulk.UpdateMediaFacetsAction.RESULT_UPDATED;
+import static org.nuxeo.ecm.platform.picture.api.ImagingDocumentConstants.PICTURE_FACET;
+
+import java.io.Serializable;
+import java.time.Duration;
+
+import javax.inject.Inject;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.bulk.BulkService;
+import org.nuxeo.ecm.core.bulk.message.BulkCommand;
+import org.nuxeo.ecm.core.bulk.message.BulkStatus;
+import org.nuxeo.ecm.core.test.CoreBulkFeature;
+import org.nuxeo.ecm.core.test.DefaultRepositoryInit;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.TransactionalFeature;
+
+import nuxeo.media.asset.test.features.MediaAssetTestFeature;
+import nuxeo.media.asset.test.utils.SampleContent;
+import nuxeo.media.asset.test.utils.TestContentBuilder;
+
+@RunWith(FeaturesRunner.class)
+@Features({ MediaAssetTestFeature.class, CoreBulkFeature.class })
+@RepositoryConfig(init = DefaultRepositoryInit.class, cleanup = Granularity.METHOD)
+public class TestUpdateMediaFacetsAction {
+
+    protected static final String QUERY = "SELECT * FROM FileWithAsset";
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected BulkService bulkService;
+
+    @Inject
+    protected TransactionalFeature txFeature;
+
+    @Test
+    public void testDryRunDoesNotSave() throws InterruptedException {
+        DocumentModel doc = createOutdatedPicture("outdated");
+
+        BulkStatus status = run(true);
+        Assert.assertEquals(1L, status.getResult().get(RESULT_UPDATED));
+        Assert.assertEquals(1L, status.getResult().get(RESULT_ADDED_PREFIX + PICTURE_FACET));
+        Assert.assertFalse(session.getDocument(doc.getRef()).hasFacet(PICTURE_FACET));
+    }
+
+    @Test
+    public void testOnlyChangedDocumentsAreSaved() throws InterruptedException {
+        DocumentModel outdated = createOutdatedPicture("outdated");
+        DocumentModel upToDate = TestContentBuilder.newInstance(session)
+                                                   .setType("FileWithAsset")
+                                                   .setName("upToDate")
+                                                   .setFilePath(SampleContent.JPEG_PATH)
+                                                   .build();
+        txFeature.nextTransaction();
+        String changeToken = session.getDocument(upToDate.getRef()).getChangeToken();
+        Serializable modified = session.getDocument(outdated.getRef()).getPropertyValue("dc:modified");
+
+        BulkStatus status = run(false);
+        Assert.assertEquals(2, status.getProcessed());
+        Assert.assertEquals(1L, status.getResult().get(RESULT_UPDATED));
+        outdated = session.getDocument(outdated.getRef());
+        Assert.assertTrue(outdated.hasFacet(PICTURE_FACET));
+        // a technical update
+        Assert.assertEquals(modified, outdated.getPropertyValue("dc:modified"));
+        Assert.assertTrue(session.getVersions(outdated.getRef()).isEmpty());
+        Assert.assertEquals(changeToken, session.getDocument(upToDate.getRef()).getChangeToken());
+
+        // nothing left to update
+        status = run(false);
+        Assert.assertNull(status.getResult().get(RESULT_UPDATED));
+    }
+
+    /**
+     * @return a document holding a picture but without the Picture facet, as if created before a mapping change
+     */
+    protected DocumentModel createOutdatedPicture(String name) {
+        DocumentModel doc = TestContentBuilder.newInstance(session)
+                                              .setType("FileWithAsset")
+                                              .setName(name)
+                                              .setFilePath(SampleContent.JPEG_PATH)
+                                              .build();
+        doc.removeFacet(PICTURE_FACET);
+        // file:content is not dirty, the listener leaves the facets alone
+        doc = session.saveDocument(doc);
+        Assert.assertFalse(doc.hasFacet(PICTURE_FACET));
+        txFeature.nextTransaction();
+        return doc;
+    }
+
+    protected BulkStatus run(boolean dryRun) throws InterruptedException {
+        String commandId = bulkService.submit(
+                new BulkCommand.Builder(ACTION_NAME, QUERY, session.getPrincipal().getName()).repository(
+                        session.getRepositoryName()).param(PARAM_DRY_RUN, dryRun).build());
+        Assert.assertTrue(bulkService.await(commandId, Duration.ofSeconds(60)));
+        txFeature.nextTransaction();
+        BulkStatus status = bulkService.getStatus(commandId);
+        Assert.assertEquals(BulkStatus.State.COMPLETED, status.getState());
+        return status;
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.detection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+
+import nuxeo.media.asset.test.utils.SampleContent;
+
+public class TestMimetypeSniffer {
+
+    protected MimetypeSniffer sniffer = new MimetypeSniffer();
+
+    @Test
+    public void testFixtures() throws IOException {
+        Assert.assertEquals("image/jpeg", sniffer.sniff(fileBlob(SampleContent.JPEG_PATH)));
+        Assert.assertEquals("video/mp4", sniffer.sniff(fileBlob(SampleContent.MP4_PATH)));
+        Assert.assertEquals("audio/mp4", sniffer.sniff(fileBlob(SampleContent.M4A_PATH)));
+        Assert.assertEquals("application/zip", sniffer.sniff(fileBlob(SampleContent.ZIP_PATH)));
+        Assert.assertEquals("application/x-tar", sniffer.sniff(fileBlob(SampleContent.TAR_3D_PATH)));
+        Assert.assertEquals("application/gzip", sniffer.sniff(fileBlob(SampleContent.TGZ_3D_PATH)));
+        Assert.assertNull(sniffer.sniff(fileBlob(SampleContent.PDF_PATH)));
+        Assert.assertNull(sniffer.sniff(fileBlob(SampleContent.ABC_PATH)));
+    }
+
+    @Test
+    public void testStreamedBlob() throws IOException {
+        File file = FileUtils.getResourceFileFromContext(SampleContent.JPEG_PATH);
+        Blob blob = Blobs.createBlob(Files.readAllBytes(file.toPath()));
+        Assert.assertEquals("image/jpeg", sniffer.sniff(blob));
+    }
+
+    @Test
+    public void testSignatures() {
+        Assert.assertEquals("image/png", sniff(null, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A));
+        Assert.assertEquals("image/gif", sniff("gif", "GIF89a"));
+        Assert.assertEquals("image/tiff", sniff("tif", 'I', 'I', 0x2A, 0x00));
+        Assert.assertEquals("application/photoshop", sniff("psd", "8BPS"));
+        Assert.assertEquals("video/quicktime", sniff("mov", "\0\0\0\u0014ftypqt  "));
+        Assert.assertEquals("video/webm", sniff(null, "\u001AE\u00DF\u00A3\u0093B\u0082\u0084webm"));
+        Assert.assertEquals("application/mxf",
+                sniff("mxf", 0x06, 0x0E, 0x2B, 0x34, 0x02, 0x05, 0x01, 0x01, 0x0D, 0x01, 0x02, 0x01));
+        Assert.assertEquals("application/gxf",
+                sniff(null, 0x00, 0x00, 0x00, 0x00, 0x01, 0xBC, 0, 0, 0, 0, 0, 0, 0, 0, 0xE1, 0xE2));
+        Assert.assertEquals("audio/mpeg", sniff("mp3", "ID3"));
+        Assert.assertEquals("audio/mpeg", sniff("mp3", 0xFF, 0xFB, 0x90, 0x64));
+        Assert.assertEquals("audio/x-wav", sniff("wav", "RIFF\0\0\0\0WAVEfmt "));
+        Assert.assertEquals("audio/flac", sniff("flac", "fLaC"));
+        Assert.assertEquals("audio/ogg", sniff("ogg", ogg("\u0001vorbis")));
+        Assert.assertEquals("video/ogg", sniff("ogv", ogg("\u0080theora")));
+    }
+
+    @Test
+    public void testMpegAudioFramesWithoutExtension() {
+        // MPEG 1 layer III, 128 kbit/s, 44.1 kHz: 417 bytes frames
+        byte[] frames = new byte[421];
+        byte[] header = { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x64 };
+        System.arraycopy(header, 0, frames, 0, header.length);
+        // a single frame header is not enough without the mp3 extension
+        Assert.assertNull(sniffer.sniff(ByteBuffer.wrap(frames), null));
+        Assert.assertEquals("audio/mpeg", sniffer.sniff(ByteBuffer.wrap(frames), "mp3"));
+
+        System.arraycopy(header, 0, frames, 417, header.length);
+        Assert.assertEquals("audio/mpeg", sniffer.sniff(ByteBuffer.wrap(frames), null));
+        // the second frame must have the same sample rate
+        frames[419] = (byte) 0x94;
+        Assert.assertNull(sniffer.sniff(ByteBuffer.wrap(frames), null));
+
+        // any frame sync followed by a free bitrate, as found in binary files
+        Assert.assertNull(sniff("mp3", 0xFF, 0xFB, 0x00, 0x00));
+        Assert.assertNull(sniff(null, 0xFF, 0xE3, 0x00, 0x00, 0xFF, 0xE3, 0x00, 0x00));
+    }
+
+    @Test
+    public void testExtensionMustAgree() {
+        // office documents and raw pictures share their container with other formats
+        Assert.assertNull(sniff("docx", 'P', 'K', 0x03, 0x04));
+        Assert.assertNull(sniff("nef", 'M', 'M', 0x00, 0x2A));
+        Assert.assertNull(sniff("jpg", "GIF89a"));
+        Assert.assertEquals("application/zip", sniff("ZIP", 'P', 'K', 0x03, 0x04));
+    }
+
+    @Test
+    public void testUnknownOrTruncatedHeader() {
+        Assert.assertNull(sniff(null, "%PDF-1.4"));
+        Assert.assertNull(sniff(null, "\0\0\0\0ftyp"));
+        Assert.assertNull(sniff(null, "OggS"));
+        Assert.assertNull(sniff(null));
+    }
+
+    @Test
+    public void testHeaderSizeLimit() {
+        // the matroska doctype is beyond the 8 bytes allowed
+        MimetypeSniffer small = new MimetypeSniffer(8);
+        ByteBuffer header = bytes("\u001AE\u00DF\u00A3\u0093B\u0082\u0084webm");
+        Assert.assertNull(small.sniff(header, null));
+        Assert.assertEquals("video/webm", sniffer.sniff(header, null));
+    }
+
+    protected static Blob fileBlob(String path) throws IOException {
+        return Blobs.createBlob(FileUtils.getResourceFileFromContext(path));
+    }
+
+    protected String sniff(String extension, int... header) {
+        byte[] bytes = new byte[header.length];
+        for (int i = 0; i < header.length; i++) {
+            bytes[i] = (byte) header[i];
+        }
+        return sniffer.sniff(ByteBuffer.wrap(bytes), extension);
+    }
+
+    protected String sniff(String extension, String header) {
+        return sniffer.sniff(bytes(header), extension);
+    }
+
+    protected static ByteBuffer bytes(String header) {
+        return ByteBuffer.wrap(header.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @return a first ogg page with a single segment holding the codec header
+     */
+    protected static String ogg(String codecHeader) {
+        return "OggS\0\u0002" + "\0".repeat(20) + "\u0001\u001E" + codecHeader;
+    }
+
+}
@@ -19,10 +19,19 @@
 
 package nuxeo.media.asset.filemanager;
 
+import static org.nuxeo.ecm.platform.picture.api.ImagingDocumentConstants.PICTURE_FACET;
+
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import javax.inject.Inject;
 
+import nuxeo.media.asset.service.MediaAssetService;
+import nuxeo.media.asset.service.MediaAssetServiceImpl;
 import nuxeo.media.asset.test.features.FilemanagerTestFeature;
 import nuxeo.media.asset.test.features.MediaAssetTestFeature;
 import nuxeo.media.asset.test.utils.SampleContent;
@@ -35,14 +44,18 @@ import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
 import org.nuxeo.ecm.core.test.DefaultRepositoryInit;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.ecm.platform.filemanager.api.FileImporterContext;
 import org.nuxeo.ecm.platform.filemanager.api.FileManager;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.TransactionalFeature;
+import org.nuxeo.runtime.transaction.TransactionHelper;
 
 @RunWith(FeaturesRunner.class)
 @Features({ MediaAssetTestFeature.class, FilemanagerTestFeature.class })
@@ -55,6 +68,12 @@ public class TestMediaAssetFileImporter {
     @Inject
     protected FileManager fileManager;
 
+    @Inject
+    protected MediaAssetService mediaAssetService;
+
+    @Inject
+    protected TransactionalFeature txFeature;
+
 
     @Test
     @Deploy("nuxeo.media.asset.core:test-media-asset-service-with-custom-folder.xml")
@@ -72,4 +91,148 @@ public class TestMediaAssetFileImporter {
         Assert.assertEquals("File", file.getType());
     }
 
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-service-with-custom-folder.xml")
+    public void testClassificationIsHandedOverToListener() throws IOException {
+        DocumentModel workspace = TestContentBuilder.newInstance(session)
+                                                    .setType("CustomFolder")
+                                                    .build();
+        Blob blob = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.JPEG_PATH));
+        blob.setDigest("imported-digest");
+        MediaAssetServiceImpl service = (MediaAssetServiceImpl) mediaAssetService;
+        long hits = service.getCacheHitCount();
+        long misses = service.getCacheMissCount();
+
+        FileImporterContext context = FileImporterContext.builder(session, blob, workspace.getPathAsString())
+                                                         .overwrite(false)
+                                                         .build();
+
+        DocumentModel file = fileManager.createOrUpdateDocument(context);
+        Assert.assertTrue(file.hasFacet(PICTURE_FACET));
+        // classified once by the importer, the listener did not even look up the cache
+        Assert.assertEquals(misses + 1, service.getCacheMissCount());
+        Assert.assertEquals(hits, service.getCacheHitCount());
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-service-with-custom-folder.xml")
+    public void testAllowedSubtypeIsCheckedPerContainer() {
+        DocumentModel workspace = TestContentBuilder.newInstance(session)
+                                                    .setType("CustomFolder")
+                                                    .setName("container")
+                                                    .build();
+        String path = workspace.getPathAsString();
+        Assert.assertTrue(mediaAssetService.isAllowedSubtype(session, path, "File"));
+        Assert.assertFalse(mediaAssetService.isAllowedSubtype(session, path, "Workspace"));
+        Assert.assertTrue(mediaAssetService.isAllowedSubtype(session, path, "File"));
+
+        // the decision made for the deleted container is not reused for the one replacing it at the same path
+        session.removeDocument(workspace.getRef());
+        DocumentModel domain = TestContentBuilder.newInstance(session).setType("Domain").setName("container").build();
+        Assert.assertEquals(path, domain.getPathAsString());
+        Assert.assertFalse(mediaAssetService.isAllowedSubtype(session, path, "File"));
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-service-with-custom-folder.xml")
+    @Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+    @Deploy("nuxeo.media.asset.core:test-media-asset-archive-explode.xml")
+    public void testArchiveOfAssetsIsExploded() throws IOException {
+        DocumentModel workspace = TestContentBuilder.newInstance(session)
+                                                    .setType("CustomFolder")
+                                                    .build();
+        Blob blob = newArchiveOfAssets();
+
+        FileImporterContext context = FileImporterContext.builder(session, blob, workspace.getPathAsString())
+                                                         .overwrite(false)
+                                                         .build();
+        DocumentModel folder = fileManager.createOrUpdateDocument(context);
+        Assert.assertEquals("Folder", folder.getType());
+        Assert.assertEquals("shoot", folder.getTitle());
+        // the entries are imported after commit
+        Assert.assertTrue(session.getChildren(folder.getRef()).isEmpty());
+        txFeature.nextTransaction();
+
+        // the directories of the entries are mirrored, notes/ only holds a document and is not created
+        DocumentModelList directories = session.getChildren(folder.getRef());
+        Assert.assertEquals(1, directories.size());
+        Assert.assertEquals("shoot", directories.get(0).getTitle());
+        DocumentModelList children = session.getChildren(directories.get(0).getRef());
+        Assert.assertEquals(3, children.size());
+        for (DocumentModel child : children) {
+            Assert.assertEquals("File", child.getType());
+            String title = child.getTitle();
+            Assert.assertEquals(title, title.endsWith(".jpg"), child.hasFacet(PICTURE_FACET));
+            Assert.assertEquals(title, title.endsWith(".mp4"), child.hasFacet("Video"));
+            Assert.assertEquals(title, title.endsWith(".m4a"), child.hasFacet("Audio"));
+        }
+
+        // a compound asset is still imported as a single document
+        Blob model = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.ZIP_3D_PATH));
+        context = FileImporterContext.builder(session, model, workspace.getPathAsString()).overwrite(false).build();
+        DocumentModel asset = fileManager.createOrUpdateDocument(context);
+        Assert.assertEquals("File", asset.getType());
+        Assert.assertTrue(asset.hasFacet("ThreeD"));
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-service-with-custom-folder.xml")
+    @Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+    @Deploy("nuxeo.media.asset.core:test-media-asset-archive-explode.xml")
+    @Deploy("nuxeo.media.asset.core:test-media-asset-archive-explode-limits.xml")
+    public void testArchiveExceedingLimitsIsNotImported() throws IOException {
+        DocumentModel workspace = TestContentBuilder.newInstance(session)
+                                                    .setType("CustomFolder")
+                                                    .build();
+        FileImporterContext context = FileImporterContext.builder(session, newArchiveOfAssets(),
+                workspace.getPathAsString()).overwrite(false).build();
+        DocumentModel folder = fileManager.createOrUpdateDocument(context);
+        Assert.assertNotNull(folder);
+        txFeature.nextTransaction();
+        // the first batch was committed, then deleted with the folder when the limit was exceeded
+        Assert.assertTrue(session.getChildren(workspace.getRef()).isEmpty());
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-service-with-custom-folder.xml")
+    @Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+    @Deploy("nuxeo.media.asset.core:test-media-asset-archive-explode.xml")
+    public void testArchiveIsNotImportedOnRollback() throws IOException {
+        DocumentModel workspace = TestContentBuilder.newInstance(session)
+                                                    .setType("CustomFolder")
+                                                    .build();
+        txFeature.nextTransaction();
+        FileImporterContext context = FileImporterContext.builder(session, newArchiveOfAssets(),
+                workspace.getPathAsString()).overwrite(false).build();
+        Assert.assertNotNull(fileManager.createOrUpdateDocument(context));
+        TransactionHelper.setTransactionRollbackOnly();
+        txFeature.nextTransaction();
+        // neither the folder nor the entries, the import is not scheduled
+        Assert.assertTrue(session.getChildren(workspace.getRef()).isEmpty());
+    }
+
+    /**
+     * @return an archive of 3 assets, 2 hidden entries and a document
+     */
+    protected Blob newArchiveOfAssets() throws IOException {
+        File zip = Framework.createTempFile("shoot", ".zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            addEntry(out, "shoot/snow-011.jpg", SampleContent.JPEG_PATH);
+            addEntry(out, "shoot/cloud-time-lapse.mp4", SampleContent.MP4_PATH);
+            addEntry(out, "shoot/yo.m4a", SampleContent.M4A_PATH);
+            addEntry(out, "shoot/.DS_Store", SampleContent.JPEG_PATH);
+            addEntry(out, "__MACOSX/shoot/._snow-011.jpg", SampleContent.JPEG_PATH);
+            addEntry(out, "notes/guide.pdf", SampleContent.PDF_PATH);
+        }
+        Blob blob = Blobs.createBlob(zip, "application/zip");
+        blob.setFilename("shoot.zip");
+        return blob;
+    }
+
+    protected void addEntry(ZipOutputStream out, String name, String path) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        Files.copy(FileUtils.getResourceFileFromContext(path).toPath(), out);
+        out.closeEntry();
+    }
+
 }
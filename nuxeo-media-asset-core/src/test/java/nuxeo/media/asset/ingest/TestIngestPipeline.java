@@ -0,0 +1,193 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.ingest;
+
+import static org.nuxeo.ecm.platform.picture.api.ImagingDocumentConstants.PICTURE_FACET;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.automation.AutomationService;
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.OperationException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.ecm.core.test.DefaultRepositoryInit;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.TransactionalFeature;
+
+import nuxeo.media.asset.test.features.MediaAssetTestFeature;
+import nuxeo.media.asset.test.utils.SampleContent;
+import nuxeo.media.asset.test.utils.TestContentBuilder;
+
+@RunWith(FeaturesRunner.class)
+@Features(MediaAssetTestFeature.class)
+@Deploy("org.nuxeo.ecm.automation.core")
+@Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+@Deploy("nuxeo.media.asset.core:test-media-asset-ingest.xml")
+@RepositoryConfig(init = DefaultRepositoryInit.class, cleanup = Granularity.METHOD)
+public class TestIngestPipeline {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected KeyValueService keyValueService;
+
+    @Inject
+    protected TransactionalFeature txFeature;
+
+    @Inject
+    protected AutomationService automationService;
+
+    @Test
+    public void testIngestDirectoryTree() throws IOException {
+        Path root = newDirectoryTree();
+        DocumentModel target = newTarget();
+
+        IngestProgress progress = new IngestPipeline(session, root, target.getPathAsString(), "tree").run();
+        txFeature.nextTransaction();
+
+        Assert.assertEquals(4, progress.getWalked());
+        Assert.assertEquals(4, progress.getCreated());
+        String path = target.getPathAsString();
+        Assert.assertEquals("Folder", session.getDocument(new PathRef(path + "/shoot")).getType());
+        Assert.assertTrue(session.getDocument(new PathRef(path + "/shoot/snow-011.jpg")).hasFacet(PICTURE_FACET));
+        Assert.assertTrue(session.getDocument(new PathRef(path + "/shoot/clips/cloud-time-lapse.mp4"))
+                                 .hasFacet("Video"));
+        Assert.assertTrue(session.getDocument(new PathRef(path + "/models/suzanne.zip")).hasFacet("ThreeD"));
+        Assert.assertFalse(session.getDocument(new PathRef(path + "/notes.pdf")).hasFacet(PICTURE_FACET));
+        Assert.assertFalse(session.exists(new PathRef(path + "/shoot/.DS_Store")));
+        Assert.assertFalse(session.exists(new PathRef(path + "/.cache")));
+
+        // nothing left to ingest
+        progress = new IngestPipeline(session, root, target.getPathAsString(), "tree").run();
+        Assert.assertEquals(0, progress.getWalked());
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws IOException {
+        Path root = newDirectoryTree();
+        DocumentModel target = newTarget();
+        // the first two files were committed by an interrupted run, the second one without moving the checkpoint
+        new IngestCheckpoint(keyValueService.getKeyValueStore("default"), "resumed").set(
+                Paths.get("models", "suzanne.zip"));
+        TestContentBuilder.newInstance(session)
+                          .setPath(target.getPathAsString())
+                          .setType("File")
+                          .setName("notes.pdf")
+                          .setFilePath(SampleContent.PDF_PATH)
+                          .build();
+        txFeature.nextTransaction();
+
+        IngestProgress progress = new IngestPipeline(session, root, target.getPathAsString(), "resumed").run();
+        txFeature.nextTransaction();
+
+        Assert.assertEquals(3, progress.getWalked());
+        Assert.assertEquals(1, progress.getSkipped());
+        Assert.assertEquals(2, progress.getCreated());
+        String path = target.getPathAsString();
+        Assert.assertFalse(session.exists(new PathRef(path + "/models")));
+        Assert.assertTrue(session.exists(new PathRef(path + "/shoot/snow-011.jpg")));
+        Assert.assertTrue(session.exists(new PathRef(path + "/shoot/clips/cloud-time-lapse.mp4")));
+    }
+
+    @Test
+    public void testSymbolicLinksAreNotFollowed() throws IOException {
+        Path root = newDirectoryTree();
+        Files.createSymbolicLink(root.resolve("shoot/loop"), root);
+        Files.createSymbolicLink(root.resolve("shoot/snow-link.jpg"), root.resolve("shoot/snow-011.jpg"));
+        DocumentModel target = newTarget();
+
+        IngestProgress progress = new IngestPipeline(session, root, target.getPathAsString(), "links").run();
+        Assert.assertEquals(4, progress.getWalked());
+        Assert.assertEquals(4, progress.getCreated());
+    }
+
+    @Test
+    public void testOperationSchedulesIngestion() throws IOException, OperationException {
+        Path root = newDirectoryTree();
+        DocumentModel target = newTarget();
+
+        try (OperationContext context = new OperationContext(session)) {
+            context.setInput(target);
+            Map<String, Serializable> params = new HashMap<>();
+            params.put("directory", root.toString());
+            params.put("jobId", "operation");
+            automationService.run(context, IngestDirectoryOperation.ID, params);
+        }
+        // waits for the ingestion work
+        txFeature.nextTransaction();
+
+        String path = target.getPathAsString();
+        Assert.assertTrue(session.getDocument(new PathRef(path + "/shoot/snow-011.jpg")).hasFacet(PICTURE_FACET));
+        Assert.assertTrue(session.exists(new PathRef(path + "/models/suzanne.zip")));
+    }
+
+    protected DocumentModel newTarget() {
+        DocumentModel target = TestContentBuilder.newInstance(session).setType("Folder").setName("target").build();
+        // the documents are created in the transactions of the pipeline
+        txFeature.nextTransaction();
+        return target;
+    }
+
+    /**
+     * models/suzanne.zip, notes.pdf, shoot/clips/cloud-time-lapse.mp4 and shoot/snow-011.jpg in the walk order, and
+     * hidden files.
+     */
+    protected Path newDirectoryTree() throws IOException {
+        Path root = temporaryFolder.getRoot().toPath();
+        copy(SampleContent.ZIP_3D_PATH, root.resolve("models/suzanne.zip"));
+        copy(SampleContent.PDF_PATH, root.resolve("notes.pdf"));
+        copy(SampleContent.MP4_PATH, root.resolve("shoot/clips/cloud-time-lapse.mp4"));
+        copy(SampleContent.JPEG_PATH, root.resolve("shoot/snow-011.jpg"));
+        copy(SampleContent.JPEG_PATH, root.resolve("shoot/.DS_Store"));
+        copy(SampleContent.JPEG_PATH, root.resolve(".cache/snow-011.jpg"));
+        return root;
+    }
+
+    protected void copy(String resource, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Files.copy(FileUtils.getResourceFileFromContext(resource).toPath(), target);
+    }
+
+}
@@ -200,4 +200,33 @@ public class TestMediaAssetListener {
         Assert.assertTrue(compound.hasFacet(PICTURE_FACET));
     }
 
+    @Test
+    public void testSameContentIsNotReclassified() {
+        DocumentModel compound = TestContentBuilder.newInstance(session)
+                                                   .setType(TEST_DOC_TYPE)
+                                                   .setFilePath(SampleContent.JPEG_PATH)
+                                                   .build();
+        Assert.assertTrue(compound.hasFacet(PICTURE_FACET));
+        // metadata-only save, not reclassified
+        compound.setPropertyValue("dc:description", "no content change");
+        compound.removeFacet(PICTURE_FACET);
+        compound = session.saveDocument(compound);
+        Assert.assertFalse(compound.hasFacet(PICTURE_FACET));
+
+        // the same blob sent again marks the property dirty, still not reclassified
+        Blob blob = (Blob) compound.getPropertyValue("file:content");
+        Assert.assertNotNull(blob.getDigest());
+        compound.setPropertyValue("file:content", (Serializable) blob);
+        Assert.assertTrue(compound.getProperty("file:content").isDirty());
+        compound = session.saveDocument(compound);
+        Assert.assertFalse(compound.hasFacet(PICTURE_FACET));
+
+        // a renamed blob is reclassified
+        blob = (Blob) compound.getPropertyValue("file:content");
+        blob.setFilename("renamed.jpg");
+        compound.setPropertyValue("file:content", (Serializable) blob);
+        compound = session.saveDocument(compound);
+        Assert.assertTrue(compound.hasFacet(PICTURE_FACET));
+    }
+
 }
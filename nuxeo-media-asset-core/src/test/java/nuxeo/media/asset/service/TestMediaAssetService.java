@@ -24,12 +24,26 @@ import static org.nuxeo.ecm.platform.video.VideoConstants.HAS_STORYBOARD_FACET;
 import static org.nuxeo.ecm.platform.video.VideoConstants.HAS_VIDEO_PREVIEW_FACET;
 import static org.nuxeo.ecm.platform.video.VideoConstants.VIDEO_FACET;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
 
 import javax.inject.Inject;
 
 import nuxeo.media.asset.test.utils.SampleContent;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -41,10 +55,22 @@ import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.test.DefaultRepositoryInit;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.nuxeo.runtime.metrics.MetricsService;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
 
+import io.dropwizard.metrics5.Counter;
+import io.dropwizard.metrics5.MetricName;
+import io.dropwizard.metrics5.MetricRegistry;
+import io.dropwizard.metrics5.SharedMetricRegistries;
+import io.dropwizard.metrics5.Timer;
+
+import nuxeo.media.asset.archive.ArchiveLimitException;
+import nuxeo.media.asset.metrics.MediaAssetMetrics;
 import nuxeo.media.asset.test.features.MediaAssetTestFeature;
 
 @RunWith(FeaturesRunner.class)
@@ -140,13 +166,427 @@ public class TestMediaAssetService {
         Assert.assertEquals(0, facets.size());
     }
 
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+    public void testGetFacetFromZipContent() throws IOException {
+        Blob blob = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.ZIP_3D_PATH));
+        Assert.assertTrue(mediaAssetService.isBlobSupported(blob));
+        List<String> facets = mediaAssetService.getMediaFacets(blob);
+        Assert.assertEquals(1, facets.size());
+        Assert.assertEquals("ThreeD", facets.get(0));
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+    public void testGetFacetFromStreamedZipContent() throws IOException {
+        Blob file = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.ZIP_3D_PATH));
+        Blob blob = Blobs.createBlob(file.getByteArray());
+        blob.setFilename("suzanne.zip");
+        Assert.assertEquals("ThreeD", mediaAssetService.getMediaFacets(blob).get(0));
+
+        Blob unsupported = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.ZIP_PATH));
+        Assert.assertFalse(mediaAssetService.isBlobSupported(unsupported));
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+    public void testGetFacetFromTarAndNestedArchives() throws IOException {
+        for (String path : List.of(SampleContent.TAR_3D_PATH, SampleContent.TGZ_3D_PATH,
+                SampleContent.NESTED_ZIP_3D_PATH)) {
+            Blob blob = Blobs.createBlob(FileUtils.getResourceFileFromContext(path));
+            Assert.assertTrue(path, mediaAssetService.isBlobSupported(blob));
+            Assert.assertEquals(path, List.of("ThreeD"), mediaAssetService.getMediaFacets(blob));
+        }
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+    public void testGzipWithoutSupportedContentIsAPlainFile() throws IOException {
+        Blob gzip = Blobs.createBlob(gzip("notes".getBytes(StandardCharsets.UTF_8)));
+        gzip.setFilename("notes.txt.gz");
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(tar)) {
+            TarArchiveEntry entry = new TarArchiveEntry("notes.txt");
+            entry.setSize(5);
+            out.putArchiveEntry(entry);
+            out.write("notes".getBytes(StandardCharsets.UTF_8));
+            out.closeArchiveEntry();
+        }
+        Blob tarGz = Blobs.createBlob(gzip(tar.toByteArray()));
+        tarGz.setFilename("notes.tar.gz");
+
+        // classified from the gzip mimetype as before archives were inspected, not as an unsupported archive
+        for (Blob blob : List.of(gzip, tarGz)) {
+            MediaClassification classification = mediaAssetService.classify(blob);
+            Assert.assertTrue(blob.getFilename(), classification.isSupported());
+            Assert.assertFalse(blob.getFilename(), classification.isInconclusive());
+            Assert.assertNotEquals(blob.getFilename(), MediaClassification.SOURCE_ARCHIVE, classification.getSource());
+            Assert.assertEquals(blob.getFilename(), "application/gzip", classification.getMimetype());
+            Assert.assertTrue(blob.getFilename(), mediaAssetService.isBlobSupported(blob));
+        }
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+    public void testMetrics() throws IOException {
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        MetricName prefix = MetricName.build("nuxeo", "media", "asset");
+        Timer zipTimer = registry.timer(prefix.resolve("zip"));
+        Counter zipEntries = registry.counter(prefix.resolve("zip.entries"));
+        Counter zipBytes = registry.counter(prefix.resolve("zip.bytes"));
+        Counter threeD = registry.counter(prefix.resolve("match").tagged("mediatype", "ThreeD"));
+        Counter none = registry.counter(prefix.resolve("match").tagged("mediatype", MediaAssetMetrics.NO_MATCH));
+        long zipCount = zipTimer.getCount();
+        long entries = zipEntries.getCount();
+        long bytes = zipBytes.getCount();
+        long threeDCount = threeD.getCount();
+        long noneCount = none.getCount();
+
+        mediaAssetService.getMediaFacets(
+                Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.ZIP_3D_PATH)));
+        mediaAssetService.getMediaFacets(Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.PDF_PATH)));
+
+        Assert.assertEquals(zipCount + 1, zipTimer.getCount());
+        Assert.assertEquals(entries + 1, zipEntries.getCount());
+        Assert.assertTrue(zipBytes.getCount() > bytes);
+        Assert.assertEquals(threeDCount + 1, threeD.getCount());
+        Assert.assertEquals(noneCount + 1, none.getCount());
+    }
+
+    @Test
+    public void testClassificationIsCachedByDigest() throws IOException {
+        MediaAssetServiceImpl service = (MediaAssetServiceImpl) mediaAssetService;
+        Blob blob = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.JPEG_PATH));
+        blob.setDigest("jpeg-digest");
+        long hits = service.getCacheHitCount();
+        long misses = service.getCacheMissCount();
+
+        Assert.assertEquals(PICTURE_FACET, mediaAssetService.getMediaFacets(blob).get(0));
+        Assert.assertEquals(misses + 1, service.getCacheMissCount());
+
+        Blob copy = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.JPEG_PATH));
+        copy.setDigest("jpeg-digest");
+        Assert.assertEquals(PICTURE_FACET, mediaAssetService.getMediaFacets(copy).get(0));
+        Assert.assertEquals(hits + 1, service.getCacheHitCount());
+
+        service.invalidateCache();
+        mediaAssetService.getMediaFacets(copy);
+        Assert.assertEquals(misses + 2, service.getCacheMissCount());
+    }
+
+    @Test
+    public void testUnsupportedZipIsCached() throws IOException {
+        MediaAssetServiceImpl service = (MediaAssetServiceImpl) mediaAssetService;
+        Blob blob = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.ZIP_PATH));
+        blob.setDigest("zip-digest");
+        Assert.assertFalse(mediaAssetService.isBlobSupported(blob));
+        long hits = service.getCacheHitCount();
+        Assert.assertFalse(mediaAssetService.isBlobSupported(blob));
+        Assert.assertEquals(hits + 1, service.getCacheHitCount());
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+    public void testBatchClassification() throws IOException {
+        MediaAssetServiceImpl service = (MediaAssetServiceImpl) mediaAssetService;
+        Blob jpeg = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.JPEG_PATH));
+        jpeg.setDigest("batch-jpeg-digest");
+        Blob copy = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.JPEG_PATH));
+        copy.setFilename("copy.jpg");
+        copy.setDigest("batch-jpeg-digest");
+        Blob zip = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.ZIP_3D_PATH));
+        Blob pdf = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.PDF_PATH));
+        Blob mp4 = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.MP4_PATH));
+        // same content as the zip, without digest: an entry of its own
+        Blob zipCopy = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.ZIP_3D_PATH));
+        List<Blob> blobs = Arrays.asList(zip, jpeg, pdf, copy, mp4, zipCopy);
+        long hits = service.getCacheHitCount();
+        long misses = service.getCacheMissCount();
+
+        List<List<String>> facets = mediaAssetService.getMediaFacets(blobs);
+        Assert.assertEquals(blobs.size(), facets.size());
+        Assert.assertEquals(List.of("ThreeD"), facets.get(0));
+        Assert.assertEquals(List.of(PICTURE_FACET), facets.get(1));
+        Assert.assertTrue(facets.get(2).isEmpty());
+        Assert.assertEquals(List.of(PICTURE_FACET), facets.get(3));
+        Assert.assertTrue(facets.get(4).contains(VIDEO_FACET));
+        Assert.assertEquals(List.of("ThreeD"), facets.get(5));
+        // the copy shares the digest of the first picture, it is not classified nor looked up again
+        Assert.assertEquals(misses + 1, service.getCacheMissCount());
+        Assert.assertEquals(hits, service.getCacheHitCount());
+
+        Assert.assertEquals(facets, mediaAssetService.getMediaFacetsAsync(blobs).join());
+    }
+
+    @Test
+    public void testClassificationFromContextData() throws IOException {
+        DocumentModel doc = session.createDocumentModel(session.getRootDocument().getPathAsString(), "File",
+                "FileWithAsset");
+        Blob blob = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.JPEG_PATH));
+        doc.setPropertyValue("file:content", (Serializable) blob);
+
+        // a classification computed for the same blob is trusted
+        MediaClassification video = new MediaClassification("video/mp4", "Video",
+                mediaAssetService.getMediaFacets("video/mp4", null), true);
+        doc.putContextData(MediaAssetService.CLASSIFICATION_CONTEXT_DATA, new BlobClassification(blob, video));
+        mediaAssetService.updateDocumentMediaFacet(doc);
+        Assert.assertTrue(doc.hasFacet(VIDEO_FACET));
+        Assert.assertFalse(doc.hasFacet(PICTURE_FACET));
+
+        // but not once file:content changed
+        Blob other = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.ZIP_3D_PATH));
+        doc.setPropertyValue("file:content", (Serializable) other);
+        mediaAssetService.updateDocumentMediaFacet(doc);
+        Assert.assertFalse(doc.hasFacet(VIDEO_FACET));
+
+        doc.setPropertyValue("file:content", (Serializable) blob);
+        mediaAssetService.updateDocumentMediaFacet(doc);
+        Assert.assertTrue(doc.hasFacet(VIDEO_FACET));
+        blob.setFilename("renamed.jpg");
+        mediaAssetService.updateDocumentMediaFacet(doc);
+        Assert.assertTrue(doc.hasFacet(PICTURE_FACET));
+        Assert.assertFalse(doc.hasFacet(VIDEO_FACET));
+    }
+
+    @Test
+    public void testApplyMediaFacetsReturnsDiff() throws IOException {
+        DocumentModel doc = session.createDocumentModel(session.getRootDocument().getPathAsString(), "File",
+                "FileWithAsset");
+        Blob jpeg = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.JPEG_PATH));
+        doc.setPropertyValue("file:content", (Serializable) jpeg);
+        MediaFacetDiff diff = mediaAssetService.applyMediaFacets(doc);
+        Assert.assertEquals(Set.of(PICTURE_FACET), diff.getAdded());
+        Assert.assertTrue(diff.getRemoved().isEmpty());
+
+        // nothing to do for the same content
+        Assert.assertSame(MediaFacetDiff.NONE, mediaAssetService.applyMediaFacets(doc));
+
+        Blob mp4 = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.MP4_PATH));
+        doc.setPropertyValue("file:content", (Serializable) mp4);
+        diff = mediaAssetService.applyMediaFacets(doc);
+        Assert.assertEquals(Set.of(VIDEO_FACET, HAS_VIDEO_PREVIEW_FACET, HAS_STORYBOARD_FACET), diff.getAdded());
+        Assert.assertEquals(Set.of(PICTURE_FACET), diff.getRemoved());
+        Assert.assertTrue(doc.hasFacet(VIDEO_FACET));
+        Assert.assertFalse(doc.hasFacet(PICTURE_FACET));
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+    @Deploy("nuxeo.media.asset.core:test-media-asset-archive-limits.xml")
+    public void testInconclusiveArchiveInspection() throws IOException {
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        MetricName prefix = MetricName.build("nuxeo", "media", "asset");
+        Counter inconclusive = registry.counter(
+                prefix.resolve("zip.inconclusive").tagged("reason", ArchiveLimitException.LIMIT_ENTRIES));
+        long count = inconclusive.getCount();
+
+        // readme.txt then package/suzanne.zip
+        Blob blob = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.NESTED_ZIP_3D_PATH));
+        MediaClassification classification = mediaAssetService.classify(blob);
+        Assert.assertTrue(classification.isInconclusive());
+        Assert.assertFalse(classification.isSupported());
+        Assert.assertTrue(classification.getFacets().isEmpty());
+        Assert.assertEquals(count + 1, inconclusive.getCount());
+
+        // a single entry is within the limits
+        blob = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.ZIP_3D_PATH));
+        classification = mediaAssetService.classify(blob);
+        Assert.assertFalse(classification.isInconclusive());
+        Assert.assertEquals("ThreeD", classification.getMediaType());
+    }
+
+    @Test
+    @Deploy("org.nuxeo.runtime.kv")
+    @Deploy("nuxeo.media.asset.core:test-media-asset-shared-cache.xml")
+    public void testSharedCache() throws IOException {
+        MediaAssetServiceImpl service = (MediaAssetServiceImpl) mediaAssetService;
+        KeyValueStore store = Framework.getService(KeyValueService.class).getKeyValueStore("mediaasset");
+        Blob blob = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.JPEG_PATH));
+        blob.setDigest("0123456789abcdef");
+        Assert.assertEquals("Picture", mediaAssetService.classify(blob).getMediaType());
+
+        String version = service.getRegistry().getVersion();
+        String key = SharedClassificationCache.KEY_PREFIX + version + ":0123456789abcdef|jpg";
+        Assert.assertNotNull(store.getString(key));
+
+        // classified by another node, the blob is not read again
+        service.invalidateCache();
+        store.put(key, "video%2Fmp4&Video&true&&header");
+        MediaClassification classification = mediaAssetService.classify(blob);
+        Assert.assertEquals("video/mp4", classification.getMimetype());
+        Assert.assertEquals(List.of(VIDEO_FACET, HAS_VIDEO_PREVIEW_FACET, HAS_STORYBOARD_FACET),
+                classification.getFacets());
+
+        // other rules, other entries
+        MediaTypeDescriptor descriptor = newMediaType("Racy", "custom/racy");
+        service.registerContribution(descriptor, MediaAssetServiceImpl.MEDIA_TYPE_EXT_POINT, null);
+        try {
+            Assert.assertNotEquals(version, service.getRegistry().getVersion());
+            Assert.assertEquals("Picture", mediaAssetService.classify(blob).getMediaType());
+        } finally {
+            service.unregisterContribution(descriptor, MediaAssetServiceImpl.MEDIA_TYPE_EXT_POINT, null);
+        }
+    }
+
+    @Test
+    public void testDetectorChainReadsHeaderByDefault() throws IOException {
+        Blob blob = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.JPEG_PATH));
+        blob.setMimeType("video/mp4");
+        MediaClassification classification = mediaAssetService.classify(blob);
+        Assert.assertEquals("image/jpeg", classification.getMimetype());
+        Assert.assertEquals(MediaClassification.SOURCE_HEADER, classification.getSource());
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-blob-detector.xml")
+    public void testDetectorChainTrustsBlobMimetype() throws IOException {
+        Blob blob = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.JPEG_PATH));
+        blob.setMimeType("video/mp4");
+        MediaClassification classification = mediaAssetService.classify(blob);
+        Assert.assertEquals("Video", classification.getMediaType());
+        Assert.assertEquals(MediaClassification.SOURCE_BLOB, classification.getSource());
+
+        // the generic binary mimetype is not trusted, the next detectors are asked
+        blob.setMimeType("application/octet-stream");
+        classification = mediaAssetService.classify(blob);
+        Assert.assertEquals("Picture", classification.getMediaType());
+        Assert.assertEquals(MediaClassification.SOURCE_HEADER, classification.getSource());
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+    @Deploy("nuxeo.media.asset.core:test-media-asset-persist.xml")
+    public void testStoredClassification() throws IOException {
+        DocumentModel doc = session.createDocumentModel(session.getRootDocument().getPathAsString(), "File",
+                "FileWithAsset");
+        Blob zip = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.ZIP_3D_PATH));
+        doc.setPropertyValue("file:content", (Serializable) zip);
+        doc = session.createDocument(doc);
+        session.save();
+        doc = session.getDocument(doc.getRef());
+
+        Blob blob = (Blob) doc.getPropertyValue("file:content");
+        Assert.assertTrue(doc.hasFacet(MediaAssetService.MEDIA_ASSET_FACET));
+        Assert.assertTrue(doc.hasFacet("ThreeD"));
+        Assert.assertEquals("text/wavefront-obj", doc.getPropertyValue("mediaasset:mimetype"));
+        Assert.assertEquals("ThreeD", doc.getPropertyValue("mediaasset:mediaType"));
+        Assert.assertEquals("suzanne.obj", doc.getPropertyValue("mediaasset:archiveEntry"));
+        Assert.assertEquals(MediaClassification.SOURCE_ARCHIVE, doc.getPropertyValue("mediaasset:source"));
+        Assert.assertEquals(blob.getDigest(), doc.getPropertyValue("mediaasset:digest"));
+        Assert.assertSame(MediaFacetDiff.NONE, mediaAssetService.applyMediaFacets(doc));
+        Assert.assertEquals(1,
+                session.query("SELECT * FROM Document WHERE mediaasset:mediaType = 'ThreeD'").size());
+
+        // the stored mimetype is used as long as the digest is unchanged
+        doc.setPropertyValue("mediaasset:mimetype", "image/jpeg");
+        MediaFacetDiff diff = mediaAssetService.applyMediaFacets(doc);
+        Assert.assertEquals(Set.of(PICTURE_FACET), diff.getAdded());
+        Assert.assertEquals(Set.of("ThreeD"), diff.getRemoved());
+        Assert.assertTrue(diff.isStoredClassificationUpdated());
+        Assert.assertEquals("Picture", doc.getPropertyValue("mediaasset:mediaType"));
+
+        // detecting again reads the archive
+        diff = mediaAssetService.applyMediaFacets(doc, mediaAssetService.classify(blob));
+        Assert.assertEquals(Set.of("ThreeD"), diff.getAdded());
+        Assert.assertEquals("text/wavefront-obj", doc.getPropertyValue("mediaasset:mimetype"));
+
+        // the digest stored on creation lets a rename reuse the stored classification instead of reading the blob
+        doc.setPropertyValue("mediaasset:mimetype", "image/jpeg");
+        blob.setFilename("renamed.zip");
+        doc.setPropertyValue("file:content", (Serializable) blob);
+        doc = session.saveDocument(doc);
+        Assert.assertTrue(doc.hasFacet(PICTURE_FACET));
+        Assert.assertFalse(doc.hasFacet("ThreeD"));
+
+        // the digest of a new content is stored by the update itself
+        Blob jpeg = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.JPEG_PATH));
+        doc.setPropertyValue("file:content", (Serializable) jpeg);
+        doc = session.saveDocument(doc);
+        session.save();
+        doc = session.getDocument(doc.getRef());
+        blob = (Blob) doc.getPropertyValue("file:content");
+        Assert.assertEquals("image/jpeg", doc.getPropertyValue("mediaasset:mimetype"));
+        Assert.assertEquals(blob.getDigest(), doc.getPropertyValue("mediaasset:digest"));
+    }
+
     @Test
     @Deploy("nuxeo.media.asset.core:test-media-asset-service-with-custom-facet.xml")
     public void testWithCustomFacet() {
-        List<String> allFacets = ((MediaAssetServiceImpl) mediaAssetService).allMediaFacets;
+        List<String> allFacets = ((MediaAssetServiceImpl) mediaAssetService).getAllMediaFacets();
         Assert.assertTrue(allFacets.contains("Custom"));
     }
 
+    @Test
+    public void testUnregisterContribution() {
+        MediaAssetServiceImpl service = (MediaAssetServiceImpl) mediaAssetService;
+        MediaTypeDescriptor descriptor = newMediaType("Racy", "custom/racy");
+        service.registerContribution(descriptor, MediaAssetServiceImpl.MEDIA_TYPE_EXT_POINT, null);
+        try {
+            Assert.assertEquals(List.of("Racy"), mediaAssetService.getMediaFacets("custom/racy", null));
+            Assert.assertTrue(service.getAllMediaFacets().contains("Racy"));
+        } finally {
+            service.unregisterContribution(descriptor, MediaAssetServiceImpl.MEDIA_TYPE_EXT_POINT, null);
+        }
+        Assert.assertTrue(mediaAssetService.getMediaFacets("custom/racy", null).isEmpty());
+        Assert.assertFalse(service.getAllMediaFacets().contains("Racy"));
+        Assert.assertEquals(List.of(PICTURE_FACET), mediaAssetService.getMediaFacets("image/jpeg", null));
+    }
+
+    @Test
+    public void testClassifyWhileContributionsChange() throws Exception {
+        MediaAssetServiceImpl service = (MediaAssetServiceImpl) mediaAssetService;
+        MediaTypeDescriptor descriptor = newMediaType("Racy", "custom/racy");
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Long>> readers = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                readers.add(executor.submit(() -> {
+                    long reads = 0;
+                    while (!done.get()) {
+                        List<String> racy = mediaAssetService.getMediaFacets("custom/racy", null);
+                        Assert.assertTrue(racy.toString(), racy.isEmpty() || racy.equals(List.of("Racy")));
+                        Assert.assertEquals(List.of(PICTURE_FACET),
+                                mediaAssetService.getMediaFacets("image/jpeg", null));
+                        List<String> allFacets = service.getAllMediaFacets();
+                        Assert.assertTrue(allFacets.contains(PICTURE_FACET));
+                        reads++;
+                    }
+                    return reads;
+                }));
+            }
+            for (int i = 0; i < 200; i++) {
+                service.registerContribution(descriptor, MediaAssetServiceImpl.MEDIA_TYPE_EXT_POINT, null);
+                service.unregisterContribution(descriptor, MediaAssetServiceImpl.MEDIA_TYPE_EXT_POINT, null);
+            }
+            done.set(true);
+            for (Future<Long> reader : readers) {
+                Assert.assertTrue(reader.get(30, TimeUnit.SECONDS) > 0);
+            }
+        } finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+        Assert.assertTrue(mediaAssetService.getMediaFacets("custom/racy", null).isEmpty());
+    }
+
+    protected static MediaTypeDescriptor newMediaType(String name, String mimetype) {
+        MediaTypeDescriptor descriptor = new MediaTypeDescriptor();
+        descriptor.setName(name);
+        descriptor.setOrder(100);
+        descriptor.setMimetypes(List.of(mimetype));
+        descriptor.setFacets(List.of(name));
+        return descriptor;
+    }
+
+    protected static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
     @Test
     public void testWithUnsupportedDocument() {
         DocumentModel doc = session.createDocumentModel(session.getRootDocument().getPathAsString(),
@@ -163,4 +603,41 @@ public class TestMediaAssetService {
         Assert.assertTrue(mediaAssetService.isDocumentSupported(doc));
     }
 
+    @Test
+    public void testDefaultFilterIsCompiled() {
+        MediaAssetServiceImpl service = (MediaAssetServiceImpl) mediaAssetService;
+        Assert.assertTrue(service.getDocumentFilter().isCompiled());
+        DocumentModel file = session.createDocumentModel(session.getRootDocument().getPathAsString(), "file", "File");
+        DocumentModel folder = session.createDocumentModel(session.getRootDocument().getPathAsString(), "folder",
+                "Folder");
+        Assert.assertTrue(mediaAssetService.isDocumentSupported(file));
+        Assert.assertFalse(mediaAssetService.isDocumentSupported(folder));
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-service-filter.xml")
+    public void testCustomFacetFilterIsCompiled() {
+        MediaAssetServiceImpl service = (MediaAssetServiceImpl) mediaAssetService;
+        Assert.assertTrue(service.getDocumentFilter().isCompiled());
+        DocumentModel doc = session.createDocumentModel(session.getRootDocument().getPathAsString(), "Document",
+                "File");
+        Assert.assertFalse(mediaAssetService.isDocumentSupported(doc));
+        // the cache key includes the dynamic facets
+        doc.addFacet("Asset");
+        Assert.assertTrue(mediaAssetService.isDocumentSupported(doc));
+    }
+
+    @Test
+    @Deploy("nuxeo.media.asset.core:test-media-asset-service-filter-condition.xml")
+    public void testFilterWithConditionIsEvaluated() {
+        MediaAssetServiceImpl service = (MediaAssetServiceImpl) mediaAssetService;
+        Assert.assertFalse(service.getDocumentFilter().isCompiled());
+        DocumentModel doc = session.createDocumentModel(session.getRootDocument().getPathAsString(), "Document",
+                "File");
+        doc.setPropertyValue("dc:title", "asset");
+        Assert.assertTrue(mediaAssetService.isDocumentSupported(doc));
+        doc.setPropertyValue("dc:title", "other");
+        Assert.assertFalse(mediaAssetService.isDocumentSupported(doc));
+    }
+
 }
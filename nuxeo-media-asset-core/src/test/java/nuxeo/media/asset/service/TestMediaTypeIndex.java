@@ -0,0 +1,110 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import nuxeo.media.asset.test.features.MediaAssetTestFeature;
+
+@RunWith(FeaturesRunner.class)
+@Features(MediaAssetTestFeature.class)
+@Deploy("nuxeo.media.asset.core:test-media-asset-mapping-exts.xml")
+@Deploy("nuxeo.media.asset.core:test-media-asset-service-with-custom-facet.xml")
+public class TestMediaTypeIndex {
+
+    protected static final List<String> MIMETYPES = Arrays.asList(null, "image/jpeg", "image/png",
+            "application/photoshop", "application/illustrator", "application/postscript", "video/mp4",
+            "video/quicktime", "application/gxf", "application/mxf", "audio/mp3", "audio/mpeg", "custom/fooey",
+            "custom/other", "application/pdf", "application/zip", "application/octet-stream", "text/plain", "");
+
+    protected static final List<String> EXTENSIONS = Arrays.asList(null, "", " ", "jpg", "mp4", "abc", "ABC", "123",
+            "testext", "TestExt", "pdf", "obj");
+
+    @Inject
+    protected MediaAssetService mediaAssetService;
+
+    @Test
+    public void testIndexMatchesLinearScan() {
+        MediaAssetServiceImpl service = (MediaAssetServiceImpl) mediaAssetService;
+        for (String mimetype : MIMETYPES) {
+            for (String extension : EXTENSIONS) {
+                List<String> expected = linearScan(service.getRegistry().getMediaTypes().values(), mimetype,
+                        extension);
+                Assert.assertEquals(mimetype + " / " + extension, expected,
+                        service.getMediaFacets(mimetype, extension));
+            }
+        }
+    }
+
+    @Test
+    public void testFacetsAreShared() {
+        List<String> first = mediaAssetService.getMediaFacets("video/mp4", null);
+        List<String> second = mediaAssetService.getMediaFacets("video/x-msvideo", null);
+        Assert.assertSame(first, second);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testFacetsAreImmutable() {
+        mediaAssetService.getMediaFacets("image/jpeg", null).add("Video");
+    }
+
+    /**
+     * Reference implementation: first enabled type by order whose mimetype patterns or extensions match.
+     */
+    protected static List<String> linearScan(Iterable<MediaTypeDescriptor> descriptors, String mimetype,
+            String extension) {
+        List<MediaTypeDescriptor> types = new ArrayList<>();
+        descriptors.forEach(types::add);
+        types.sort(Comparator.comparingInt(MediaTypeDescriptor::getOrder));
+        List<String> facets = new ArrayList<>();
+        Iterator<MediaTypeDescriptor> iterator = types.iterator();
+        while (facets.size() == 0 && iterator.hasNext()) {
+            MediaTypeDescriptor type = iterator.next();
+            if (type.isEnabled() && (mimetypeMatches(mimetype, type) || extensionMatches(extension, type))) {
+                facets = type.getFacets();
+            }
+        }
+        return facets;
+    }
+
+    protected static boolean mimetypeMatches(String mimetype, MediaTypeDescriptor type) {
+        return mimetype != null && type.getMimetypes().stream().anyMatch(p -> Pattern.matches(p, mimetype));
+    }
+
+    protected static boolean extensionMatches(String extension, MediaTypeDescriptor type) {
+        return extension != null && !extension.isBlank()
+                && type.getExtensions().stream().anyMatch(extension::equalsIgnoreCase);
+    }
+
+}
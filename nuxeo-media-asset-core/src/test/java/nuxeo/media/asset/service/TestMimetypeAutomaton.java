@@ -0,0 +1,90 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMimetypeAutomaton {
+
+    protected static final List<String> PATTERNS = Arrays.asList("image/.*", "application/photoshop",
+            "application/illustrator", "video/.*", "application/gxf", "application/mxf", "audio/.*",
+            "model/vnd.collada\\+xml", "application/x-3ds", "model/gltf\\+json", "text/(plain|x-c)",
+            "application/vnd\\.ms-[a-z]+", "[^/]+/x-custom-\\d+", "custom/fooe?y", "^anchored/.*",
+            "bounded/a{2,3}", "(?i)IGNORECASE/.*", "lazy/.*?end");
+
+    protected static final List<String> INPUTS = Arrays.asList("", "image/jpeg", "image/", "video/mp4",
+            "application/photoshop", "application/photoshopx", "application/gxf", "audio/mp3",
+            "model/vnd.collada+xml", "model/vndxcollada+xml", "model/gltf+json", "text/plain", "text/x-c",
+            "text/x-d", "application/vnd.ms-excel", "application/vnd.ms-", "application/vndXms-excel",
+            "foo/x-custom-42", "foo/bar/x-custom-42", "custom/foey", "custom/fooey", "custom/fooooey",
+            "anchored/x", "bounded/aa", "bounded/aaaa", "ignorecase/x", "lazy/the-end", "lazy/end-not",
+            "image/\n", "image/a\u2028", "image/\uD83D\uDE00", "vid\u00E9o/mp4", "video/vid\u00E9o");
+
+    @Test
+    public void testMatchesLikeRegex() {
+        Map<String, Integer> ranks = new LinkedHashMap<>();
+        for (int i = 0; i < PATTERNS.size(); i++) {
+            ranks.put(PATTERNS.get(i), i);
+        }
+        MimetypeAutomaton automaton = new MimetypeAutomaton(ranks);
+        for (String input : INPUTS) {
+            Assert.assertEquals(input, firstMatch(PATTERNS, input), automaton.match(input));
+        }
+    }
+
+    @Test
+    public void testLowestRankWins() {
+        Map<String, Integer> ranks = new LinkedHashMap<>();
+        ranks.put("video/.*", 5);
+        ranks.put("video/mp4", 2);
+        ranks.put("^video/mp4$", 1);
+        MimetypeAutomaton automaton = new MimetypeAutomaton(ranks);
+        Assert.assertEquals(1, automaton.getFallbackCount());
+        Assert.assertEquals(1, automaton.match("video/mp4"));
+        Assert.assertEquals(5, automaton.match("video/webm"));
+        Assert.assertEquals(MimetypeAutomaton.NO_MATCH, automaton.match("audio/mp4"));
+    }
+
+    @Test
+    public void testDefaultPatternsDoNotFallback() {
+        Map<String, Integer> ranks = new LinkedHashMap<>();
+        for (int i = 0; i < 14; i++) {
+            ranks.put(PATTERNS.get(i), i);
+        }
+        Assert.assertEquals(0, new MimetypeAutomaton(ranks).getFallbackCount());
+    }
+
+    protected static int firstMatch(List<String> patterns, String input) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (Pattern.matches(patterns.get(i), input)) {
+                return i;
+            }
+        }
+        return MimetypeAutomaton.NO_MATCH;
+    }
+
+}
@@ -29,6 +29,7 @@ import org.nuxeo.runtime.test.runner.RunnerFeature;
 		"org.nuxeo.ecm.platform.video",
 		"org.nuxeo.ecm.platform.audio.core",
 		"org.nuxeo.ecm.platform.tag",
+		"org.nuxeo.ecm.automation.server",
 		"nuxeo.media.asset.core", "org.nuxeo.ecm.actions",
 		"nuxeo.media.asset.core:disable-dam-converter-listeners.xml",
 		"nuxeo.media.asset.core:test-media-asset-mapping.xml"})
@@ -25,10 +25,22 @@ public class SampleContent {
 
     public static String MP4_PATH = "files/cloud-time-lapse.mp4";
 
+    public static String M4A_PATH = "files/yo.m4a";
+
     public static String PDF_PATH = "files/awsgsg-emr_1.pdf";
 
     public static String ZIP_PATH = "files/small.zip";
 
     public static String ABC_PATH = "files/suzanne.ABC";
 
+    public static String OBJ_3D_PATH = "files/suzanne.obj";
+
+    public static String ZIP_3D_PATH = "files/suzanne.zip";
+
+    public static String TAR_3D_PATH = "files/suzanne.tar";
+
+    public static String TGZ_3D_PATH = "files/suzanne.tar.gz";
+
+    public static String NESTED_ZIP_3D_PATH = "files/suzanne-nested.zip";
+
 }
@@ -45,6 +45,8 @@ public class TestContentBuilder {
 
     protected String filePath;
 
+    protected Blob blob;
+
     protected Map<String, Serializable> properties = new HashMap<>();
 
     protected Map<String, String> permissions = new HashMap<>();
@@ -79,6 +81,14 @@ public class TestContentBuilder {
         return this;
     }
 
+    /**
+     * Sets the blob as is, instead of reading the one of {@link #setFilePath(String)}.
+     */
+    public TestContentBuilder setBlob(Blob blob) {
+        this.blob = blob;
+        return this;
+    }
+
     public TestContentBuilder setProperty(String xpath, Serializable property) {
         this.properties.put(xpath, property);
         return this;
@@ -107,14 +117,16 @@ public class TestContentBuilder {
         try {
             DocumentModel doc = session.createDocumentModel(path, name, type);
             doc.setPropertyValue("dc:title", name);
-            if (filePath != null) {
-                Blob blob = Blobs.createBlob(FileUtils.getResourceFileFromContext(filePath));
+            if (blob != null) {
+                doc.setPropertyValue("file:content", (Serializable) blob);
+            } else if (filePath != null) {
+                Blob file = Blobs.createBlob(FileUtils.getResourceFileFromContext(filePath));
                 MimetypeRegistry registry = Framework.getService(MimetypeRegistry.class);
-                String mimetype = registry.getMimetypeFromFilenameAndBlobWithDefault(blob.getFilename(), blob, null);
+                String mimetype = registry.getMimetypeFromFilenameAndBlobWithDefault(file.getFilename(), file, null);
                 if (mimetype != null) {
-                    blob.setMimeType(mimetype);
+                    file.setMimeType(mimetype);
                 }
-                doc.setPropertyValue("file:content", (Serializable) blob);
+                doc.setPropertyValue("file:content", (Serializable) file);
             }
             for (Map.Entry<String, Serializable> entry : properties.entrySet()) {
                 doc.setPropertyValue(entry.getKey(), entry.getValue());
@@ -0,0 +1,166 @@
+/*
+ * (C) Copyright 2020 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Michael Vachette
+ */
+
+package nuxeo.media.asset.work;
+
+import static org.nuxeo.ecm.platform.picture.api.ImagingDocumentConstants.PICTURE_FACET;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import javax.inject.Inject;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.test.DefaultRepositoryInit;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.TransactionalFeature;
+
+import nuxeo.media.asset.test.features.MediaAssetTestFeature;
+import nuxeo.media.asset.test.utils.SampleContent;
+import nuxeo.media.asset.test.utils.TestContentBuilder;
+
+@RunWith(FeaturesRunner.class)
+@Features(MediaAssetTestFeature.class)
+@Deploy("nuxeo.media.asset.core:test-media-asset-zip-content.xml")
+@Deploy("nuxeo.media.asset.core:test-media-asset-async.xml")
+@RepositoryConfig(init = DefaultRepositoryInit.class, cleanup = Granularity.METHOD)
+public class TestMediaClassificationWork {
+
+    protected static final String TEST_DOC_TYPE = "FileWithAsset";
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected WorkManager workManager;
+
+    @Inject
+    protected TransactionalFeature txFeature;
+
+    @Test
+    public void testGuessThenClassifyAfterCommit() {
+        DocumentModel picture = TestContentBuilder.newInstance(session)
+                                                  .setType(TEST_DOC_TYPE)
+                                                  .setName("picture")
+                                                  .setFilePath(SampleContent.JPEG_PATH)
+                                                  .build();
+        DocumentModel model = TestContentBuilder.newInstance(session)
+                                                .setType(TEST_DOC_TYPE)
+                                                .setName("model")
+                                                .setFilePath(SampleContent.ZIP_3D_PATH)
+                                                .build();
+        // the extension is enough for the picture, the archive content is not read yet
+        Assert.assertTrue(picture.hasFacet(PICTURE_FACET));
+        Assert.assertFalse(model.hasFacet("ThreeD"));
+
+        txFeature.nextTransaction();
+        Assert.assertTrue(session.getDocument(picture.getRef()).hasFacet(PICTURE_FACET));
+        DocumentModel classified = session.getDocument(model.getRef());
+        Assert.assertTrue(classified.hasFacet("ThreeD"));
+        // a technical update
+        Assert.assertEquals(model.getPropertyValue("dc:modified"), classified.getPropertyValue("dc:modified"));
+        Assert.assertTrue(session.getVersions(model.getRef()).isEmpty());
+    }
+
+    @Test
+    public void testLastContentIsClassified() throws IOException {
+        DocumentModel model = TestContentBuilder.newInstance(session)
+                                                .setType(TEST_DOC_TYPE)
+                                                .setFilePath(SampleContent.ZIP_PATH)
+                                                .build();
+        txFeature.nextTransaction();
+
+        // two updates before the works run, the work of the first one is replaced by the one of the second
+        model = session.getDocument(model.getRef());
+        model.setPropertyValue("file:content",
+                (Serializable) Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.JPEG_PATH)));
+        model = session.saveDocument(model);
+        model.setPropertyValue("file:content",
+                (Serializable) Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.ZIP_3D_PATH)));
+        model = session.saveDocument(model);
+        txFeature.nextTransaction();
+
+        model = session.getDocument(model.getRef());
+        Assert.assertTrue(model.hasFacet("ThreeD"));
+        Assert.assertFalse(model.hasFacet(PICTURE_FACET));
+    }
+
+    @Test
+    public void testDeletedDocumentIsSkipped() {
+        DocumentModel model = TestContentBuilder.newInstance(session)
+                                                .setType(TEST_DOC_TYPE)
+                                                .setFilePath(SampleContent.ZIP_3D_PATH)
+                                                .build();
+        session.removeDocument(model.getRef());
+        txFeature.nextTransaction();
+        Assert.assertFalse(session.exists(model.getRef()));
+    }
+
+    @Test
+    public void testChangedContentIsSkipped() throws IOException {
+        DocumentModel model = TestContentBuilder.newInstance(session)
+                                                .setType(TEST_DOC_TYPE)
+                                                .setFilePath(SampleContent.ZIP_PATH)
+                                                .build();
+        txFeature.nextTransaction();
+
+        // a work scheduled for a previous content of the document
+        Blob previous = Blobs.createBlob(FileUtils.getResourceFileFromContext(SampleContent.ZIP_3D_PATH));
+        workManager.schedule(new MediaClassificationWork(session.getRepositoryName(), model.getId(), previous));
+        txFeature.nextTransaction();
+        Assert.assertFalse(session.getDocument(model.getRef()).hasFacet("ThreeD"));
+    }
+
+    @Test
+    public void testChangedDigestIsSkipped() throws IOException {
+        DocumentModel model = TestContentBuilder.newInstance(session)
+                                                .setType(TEST_DOC_TYPE)
+                                                .setFilePath(SampleContent.ZIP_3D_PATH)
+                                                .build();
+        txFeature.nextTransaction();
+        model = session.getDocument(model.getRef());
+        Assert.assertTrue(model.hasFacet("ThreeD"));
+        model.removeFacet("ThreeD");
+        // file:content is not dirty, the listener leaves the facets alone
+        model = session.saveDocument(model);
+        txFeature.nextTransaction();
+
+        // a previous content with the same filename and length
+        Blob current = (Blob) model.getPropertyValue("file:content");
+        Blob previous = Blobs.createBlob(current.getByteArray());
+        previous.setFilename(current.getFilename());
+        previous.setDigest("previous-digest");
+        workManager.schedule(new MediaClassificationWork(session.getRepositoryName(), model.getId(), previous));
+        txFeature.nextTransaction();
+        Assert.assertFalse(session.getDocument(model.getRef()).hasFacet("ThreeD"));
+    }
+
+}